@@ -1,34 +1,73 @@
 package src;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
 
 import static src.Utils.*;
 
-public class Blob implements Serializable {
+/** Represents the saved content of a file.
+ *
+ * A Blob is only a handle on the hash of the content and the object store that
+ * holds it; the content itself is never kept in memory. It is hashed, saved and
+ * restored as a byte stream through a fixed-size buffer, so files of any size and
+ * of any (also binary) content are handled in constant memory. The content is
+ * saved compressed unless it does not look compressible, as a delta against the
+ * previous version of the same file, or, if it is large, as a list of chunks that
+ * are blobs of their own (see ObjectEncoding).
+ *
+ *  @author KAUNG SI THU
+ */
+public class Blob {
+
+    /** The size of the buffer the content is streamed through. */
+    static final int BUFFER_SIZE = 8192;
+
+    /** The sizes of content that is saved as a delta when it has a base. Deltas are
+     *  computed in memory, so content beyond MAX_DELTA_SIZE is always saved in full. */
+    static final long MIN_DELTA_SIZE = 4 * Delta.BLOCK;
+    static final long MAX_DELTA_SIZE = 256L * 1024 * 1024;
 
 
 
     /* Instance Variables */
-    String content;
-    String hashCode;
+    /** The SHA-1 hash of the content. */
+    private final String hashCode;
+
+    /** The object store where the content is saved. */
+    private final ObjectStore store;
 
     /**
-     * The Blob constructor. This will save the content of the blob and the content's hash code.
-     * @param content the content of this file
+     * The Blob constructor. This is a handle on already saved content.
+     * @param hashCode the hash of the content
+     * @param store the object store where the content is saved
      */
-    public Blob(String content) {
-        this.content = content;
-        hashCode = sha1(this.content);
+    private Blob(String hashCode, ObjectStore store) {
+        this.hashCode = hashCode;
+        this.store = store;
     }
 
     /**
-     * Get the content of this Blob.
+     * Get the content of this Blob as a String. Only meant for text that has to be
+     * put together in memory anyway, such as the two sides of a merge conflict.
      * @return the content of this Blob.
      */
     public String getContent() {
-        return content;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = open()) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return out.toString(StandardCharsets.UTF_8);
     }
 
     /**
@@ -40,41 +79,222 @@ public class Blob implements Serializable {
     }
 
     /**
-     * Serialize this blob to a file in the .gitlet/blobs folder.
+     * Open the content of this Blob as a stream.
+     * @return a stream of the saved content
+     */
+    InputStream open() {
+        return store.open(hashCode);
+    }
+
+    /**
+     * Write the content of this Blob to FILE, creating or overwriting it, and
+     * creating the directories it is in.
+     * @param file the file receiving the content
      */
-    void saveBlob(boolean isRemote) {
-        File f;
-        if (isRemote) {
-            f = join(Repository.REMOTE_BLOBS_FOLDER, hashCode);
-        } else {
-            f = join(Repository.BLOBS_FOLDER, hashCode);
+    void writeTo(File file) {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
         }
+        File directory = file.getParentFile();
+        if (directory != null) {
+            directory.mkdirs();
+        }
+        try (InputStream in = open(); OutputStream out = new FileOutputStream(file)) {
+            copy(in, out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+
+
+
 
-        try {
-            f.createNewFile();
+    /********************************************************************************
+     *                        Methods to Hash and Save Content                      *
+     ********************************************************************************/
+
+    /**
+     * Return the hash the content of FILE would have as a blob, without saving it.
+     * @param file a plain file in the working directory
+     * @return the SHA-1 hash of the content of the file
+     */
+    static String hashFile(File file) {
+        return sha1File(file);
+    }
+
+    /**
+     * Hash the content of FILE and save it in the blob store in one pass.
+     * @param file a plain file in the working directory
+     * @return the Blob of the content of the file
+     */
+    static Blob saveFile(File file, boolean isRemote) {
+        try (InputStream in = new FileInputStream(file)) {
+            return save(in, isRemote);
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
-        writeObject(f, this);
     }
 
     /**
-     * Deserialize the Blob object from the file.
-     * @param hashedContent the name of the blob in .gitlet/blobs folder
-     * @return the Blob object after deserializing the file in corresponding path, null if failed.
+     * Hash the content of FILE and save it in the blob store as a delta
+     * against the blob BASEHASH, usually the previous version of the same file. The
+     * content is saved as a full blob instead if the delta chain of the base is
+     * already as deep as configured, or if the delta is not less than half the size
+     * of the content. Files from the configured chunking threshold on are saved as
+     * chunked blobs instead (see saveChunked).
+     * @param file a plain file in the working directory
+     * @param baseHash the hash of the base blob, null if there is none
+     * @return the Blob of the content of the file
      */
-    static Blob readBlob(String hashedContent, boolean isRemote) {
-        File f;
-        if (isRemote) {
-            f = join(Repository.REMOTE_BLOBS_FOLDER, hashedContent);
-        } else {
-            f = join(Repository.BLOBS_FOLDER, hashedContent);
+    static Blob saveFile(File file, String baseHash, boolean isRemote) {
+        ObjectStore store = Repository.blobStore(isRemote);
+        long chunkThreshold = Config.chunkThreshold(isRemote);
+        if (chunkThreshold > 0 && file.length() >= chunkThreshold) {
+            return saveChunked(file, isRemote);
+        }
+        if (baseHash == null || file.length() < MIN_DELTA_SIZE
+            || file.length() > MAX_DELTA_SIZE || !store.contains(baseHash)) {
+            return saveFile(file, isRemote);
+        }
+
+        int depth;
+        try (InputStream in = store.openSaved(baseHash)) {
+            depth = ObjectEncoding.deltaDepth(in) + 1;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (depth > Config.deltaDepth(isRemote)) {
+            return saveFile(file, isRemote);
+        }
+
+        byte[] content = readContents(file);
+        String hash = sha1(content);
+        if (store.contains(hash)) {
+            return new Blob(hash, store);
+        }
+
+        byte[] delta = Delta.compute(ObjectEncoding.readBase(store, baseHash), content);
+        if (delta.length >= content.length / 2) {
+            return save(new ByteArrayInputStream(content), isRemote);
+        }
+
+        try (ObjectStore.Writer writer = store.newObject()) {
+            ObjectEncoding.writeDelta(writer.stream(), baseHash, depth, delta,
+                    Config.compressionLevel(isRemote));
+            writer.save(hash);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Delta.cache(hash, content);
+        return new Blob(hash, store);
+    }
+
+    /**
+     * Cut the content of FILE into chunks (see Chunker), save every chunk the
+     * .gitlet/blobs folder does not have yet as a blob, and save the blob of the
+     * whole content as the manifest of its chunks. Only the chunks around the edits
+     * of a large file are new, so only those are written.
+     * @param file a plain file in the working directory
+     * @return the Blob of the content of the file
+     */
+    static Blob saveChunked(File file, boolean isRemote) {
+        ObjectStore store = Repository.blobStore(isRemote);
+        MessageDigest md = newSha1Digest();
+        List<String> chunks = new ArrayList<>();
+        List<Integer> chunkLengths = new ArrayList<>();
+        long length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            Chunker chunker = new Chunker(in);
+            byte[] chunk;
+            while ((chunk = chunker.next()) != null) {
+                md.update(chunk);
+                String chunkHash = sha1(chunk);
+                if (!store.contains(chunkHash)) {
+                    save(new ByteArrayInputStream(chunk), isRemote);
+                }
+                chunks.add(chunkHash);
+                chunkLengths.add(chunk.length);
+                length += chunk.length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
 
-        if (!f.exists()) {
+        String hash = hexHash(md.digest());
+        // Content of a single chunk is already saved whole, under its own hash.
+        if (chunks.size() <= 1 || store.contains(hash)) {
+            return chunks.isEmpty() ? saveContents(new byte[0], isRemote)
+                                    : new Blob(hash, store);
+        }
+
+        try (ObjectStore.Writer writer = store.newObject()) {
+            ObjectEncoding.writeChunked(writer.stream(), length, chunks, chunkLengths);
+            writer.save(hash);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new Blob(hash, store);
+    }
+
+    /**
+     * Hash CONTENTS and save them in the blob store.
+     * @param contents the content of the new blob
+     * @return the Blob of the content
+     */
+    static Blob saveContents(byte[] contents, boolean isRemote) {
+        return save(new ByteArrayInputStream(contents), isRemote);
+    }
+
+    /**
+     * Return the Blob of content saved in the blob store, loose or packed.
+     * @param hashedContent the name of the blob in the blob store
+     * @return the Blob object of the saved content, null if there is no such content.
+     */
+    static Blob readBlob(String hashedContent, boolean isRemote) {
+        ObjectStore store = Repository.blobStore(isRemote);
+        if (!store.contains(hashedContent)) {
             return null;
         }
+        return new Blob(hashedContent, store);
+    }
+
+
+
+
 
-        return readObject(f, Blob.class);
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /**
+     * Stream IN into a new object of the blob store while hashing it and encoding it
+     * as configured for the repository (see ObjectEncoding), then save the object
+     * under its hash unless the store already has it.
+     */
+    private static Blob save(InputStream in, boolean isRemote) {
+        ObjectStore store = Repository.blobStore(isRemote);
+        MessageDigest md = newSha1Digest();
+        try (ObjectStore.Writer writer = store.newObject()) {
+            ObjectEncoding.write(in, writer.stream(), md, Config.compressionLevel(isRemote));
+            String hash = hexHash(md.digest());
+            writer.save(hash);
+            return new Blob(hash, store);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy IN to OUT through a BUFFER_SIZE buffer, updating MD if it is not null. */
+    static void copy(InputStream in, OutputStream out,
+                     MessageDigest md) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            if (md != null) {
+                md.update(buffer, 0, n);
+            }
+            out.write(buffer, 0, n);
+        }
     }
 }
@@ -0,0 +1,114 @@
+package src;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/** Cuts a stream of content into content-defined chunks.
+ *
+ * The cut points are found with the FastCDC gear hash: every byte shifts the hash
+ * left by one and adds the GEAR value of the byte, so the top bits of the hash only
+ * depend on the last few dozen bytes. A chunk ends where those top bits are all
+ * zero. As the cut points depend on the content around them rather than on their
+ * offset, an edit in one place of a large file only changes the chunks around it,
+ * and every other chunk keeps its hash.
+ *
+ * Chunks are at least MIN_SIZE and at most MAX_SIZE long. Before AVERAGE_SIZE a
+ * harder mask (more bits) is used and after it an easier one, which keeps the chunk
+ * sizes close to AVERAGE_SIZE (FastCDC's "normalized chunking").
+ *
+ *  @author KAUNG SI THU
+ */
+class Chunker {
+
+    /** The bounds and the target of the chunk size. */
+    static final int MIN_SIZE = 2 * 1024;
+    static final int AVERAGE_SIZE = 8 * 1024;
+    static final int MAX_SIZE = 64 * 1024;
+
+    /** The masks of the top bits tested before and after AVERAGE_SIZE. */
+    private static final long MASK_HARD = 0xFFFE000000000000L;
+    private static final long MASK_EASY = 0xFFE0000000000000L;
+
+    /** A fixed pseudo-random value per byte value. It must never change, or the same
+     *  content would be cut differently and no longer share chunks with old blobs. */
+    private static final long[] GEAR = new long[256];
+    static {
+        long seed = 0x676974_6C6574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            seed += 0x9E3779B97F4A7C15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+
+
+    /* Instance Variables */
+    /** The stream being cut. */
+    private final InputStream in;
+
+    /** The bytes read from IN but not yet handed out, at the start of BUFFER. */
+    private final byte[] buffer = new byte[MAX_SIZE];
+    private int buffered = 0;
+
+    /** If IN has been read to its end. */
+    private boolean ended = false;
+
+    /**
+     * A Chunker cutting the content read from IN.
+     * @param in the content being cut
+     */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Return the next chunk of the content.
+     * @return the bytes of the next chunk, null if the whole content was handed out.
+     */
+    byte[] next() throws IOException {
+        if (!ended) {
+            int n = in.readNBytes(buffer, buffered, MAX_SIZE - buffered);
+            buffered += n;
+            ended = buffered < MAX_SIZE;
+        }
+        if (buffered == 0) {
+            return null;
+        }
+
+        int cut = cut(buffer, buffered);
+        byte[] chunk = Arrays.copyOf(buffer, cut);
+        System.arraycopy(buffer, cut, buffer, 0, buffered - cut);
+        buffered -= cut;
+        return chunk;
+    }
+
+    /**
+     * Return the length of the chunk at the start of the first LENGTH bytes of DATA.
+     */
+    private static int cut(byte[] data, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+
+        long hash = 0;
+        int normal = Math.min(length, AVERAGE_SIZE);
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_HARD) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < length; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_EASY) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+}
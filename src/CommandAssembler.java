@@ -3,8 +3,7 @@ package src;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -51,46 +50,66 @@ public class CommandAssembler {
      * The file will no longer be staged for removal (see gitlet rm), if it was
      * at the time of the command.
      * <p>
-     * Failure Case : If the file does not exist, print the error message "File does not exist."
-     * and exit without changing anything.
+     * Several files may be added at once. HEAD and the staging area are read once,
+     * the files are hashed in one batch (see StagingArea.hashWorkingFiles), their new
+     * contents saved one after the other, and the staging area saved once.
+     * <p>
+     * Failure Case : If one of the files does not exist, print the error message
+     * "File does not exist." and exit without changing anything.
      *
-     * @param filename : the name of the file adding to the stage of addition
+     * @param filenames : the names of the files adding to the stage of addition, which
+     *                  may be in subdirectories of the working directory
      */
-    static void add(String filename) {
+    static void add(String... filenames) {
 
         stagingArea = StagingArea.readStagingArea(defaultIsRemote);
-        File file = join(Repository.CWD, filename);
+        TreeSet<String> paths = new TreeSet<>();
+        for (String filename : filenames) {
+            String path = Repository.workingPath(filename);
+            if (path == null) {
+                throw error("File does not exist.");
+            }
+            paths.add(path);
+        }
 
-        if (!file.exists()) {
+        Map<String, String> hashes = stagingArea.hashWorkingFiles(Repository.CWD, paths,
+                defaultIsRemote);
+        if (hashes.containsValue(null)) {
             throw error("File does not exist.");
         }
+        stageWorkingFiles(LocalTree.readHeadCommit(), paths, hashes);
 
-        String prevBlobHash = null;
-        if (stagingArea.isInAddStage(filename)) {
-            prevBlobHash = stagingArea.getFromAddStage(filename);
-        }
+        stagingArea.saveStagingArea(defaultIsRemote);
+    }
 
-        Blob blob = new Blob(readContentsAsString(file));
+    /**
+     * Stages every change of the working directory, as add -A: each working file is
+     * added as by add, and each file that is tracked in HEAD but no longer in the
+     * working directory is staged for removal, as by rm. A file staged for addition
+     * that is no longer in the working directory is no longer staged.
+     */
+    static void addAll() {
 
-        boolean isVersion = LocalTree.isVersionOfFileInHead(filename, blob.getHashCode());
-        if (isVersion) {
-            stagingArea.deleteFromAddStage(filename);
-        } else {
-            stagingArea.addToAddStage(filename, blob.getHashCode());
-        }
+        stagingArea = StagingArea.readStagingArea(defaultIsRemote);
+        Commit head = LocalTree.readHeadCommit();
+        List<String> paths = Repository.workingFiles(Repository.CWD);
 
-        if (stagingArea.isInRemoveStage(filename)) {
-            stagingArea.deleteFromRemoveStage(filename);
-        }
+        Map<String, String> hashes = stagingArea.hashWorkingFiles(Repository.CWD, paths,
+                defaultIsRemote);
+        stageWorkingFiles(head, paths, hashes);
 
-        // Before I save a blob in blobs folder, check if there is any unwanted blobs
-        // in the folder. First look into stagingArea before it is overwritten or anything.
-        if (prevBlobHash != null) {
-            File deleteFile = join(Repository.BLOBS_FOLDER, prevBlobHash);
-            restrictedDelete(deleteFile);
+        TreeSet<String> deleted = new TreeSet<>(head.getFileBlobs().keySet());
+        deleted.addAll(stagingArea.getAddStageFiles());
+        for (String path : paths) {
+            deleted.remove(path);
+        }
+        for (String path : deleted) {
+            stagingArea.deleteFromAddStage(path);
+            stagingArea.forgetWorkingFile(path);
+            if (head.isTracking(path)) {
+                stagingArea.addToRemoveStage(path);
+            }
         }
-
-        blob.saveBlob(defaultIsRemote);
 
         stagingArea.saveStagingArea(defaultIsRemote);
     }
@@ -173,8 +192,10 @@ public class CommandAssembler {
     static void rm(String filename) {
 
         stagingArea = StagingArea.readStagingArea(defaultIsRemote);
+        filename = Repository.workingPath(filename);
 
-        if (!LocalTree.isFileInHead(filename) && !stagingArea.isInAddStage(filename)) {
+        if (filename == null
+                || !LocalTree.isFileInHead(filename) && !stagingArea.isInAddStage(filename)) {
             throw error("No reason to remove the file.");
         }
 
@@ -183,10 +204,8 @@ public class CommandAssembler {
         if (LocalTree.isFileInHead(filename)) {
             stagingArea.addToRemoveStage(filename); // because this is a set: no duplicates.
 
-            File repoFile = join(Repository.CWD, filename);
-            if (repoFile.exists()) {
-                restrictedDelete(repoFile);
-            }
+            Repository.deleteWorkingFile(Repository.CWD, filename);
+            stagingArea.forgetWorkingFile(filename);
         }
 
         stagingArea.saveStagingArea(defaultIsRemote);
@@ -274,6 +293,9 @@ public class CommandAssembler {
      */
     static void checkout(String branchName, String commitId, String filename) {
 
+        if (filename != null && Repository.workingPath(filename) != null) {
+            filename = Repository.workingPath(filename);
+        }
         if (branchName != null) {
             checkoutWithBranch(branchName);
         } else if (commitId != null) {
@@ -291,7 +313,7 @@ public class CommandAssembler {
      */
     static void globallog() {
 
-        List<String> commitFiles = plainFilenamesIn(Repository.COMMITS_FOLDER);
+        List<String> commitFiles = Repository.commitStore(defaultIsRemote).ids();
         for (String commitFile : commitFiles) {
             printLog(commitFile);
         }
@@ -310,7 +332,7 @@ public class CommandAssembler {
      * @param message the message we are finding in the commits
      */
     static void find(String message) {
-        List<String> commitFiles = plainFilenamesIn(Repository.COMMITS_FOLDER);
+        List<String> commitFiles = Repository.commitStore(defaultIsRemote).ids();
         boolean isCommitExists = false;
         for (String commitFile : commitFiles) {
             String commitMessage = LocalTree.retrieveCommit(commitFile).getMessage();
@@ -353,10 +375,10 @@ public class CommandAssembler {
     static void status() {
 
         String currentBranchName = LocalTree.readCurrentBranch();
-        Set<String> dummySet = LocalTree.getBranchNames();
+        Set<String> branchNames = LocalTree.getBranchNames();
 
         System.out.println("=== Branches ===");
-        for (String branch : dummySet) {
+        for (String branch : branchNames) {
             if (currentBranchName.equals(branch)) {
                 System.out.print("*");
             }
@@ -365,66 +387,37 @@ public class CommandAssembler {
         System.out.println();
 
         stagingArea = StagingArea.readStagingArea(defaultIsRemote);
+        Status status = Status.compute(LocalTree.readHeadCommit(), stagingArea,
+                                       Repository.CWD);
+
         System.out.println("=== Staged Files ===");
-        dummySet = stagingArea.getAddStageFiles();
-        for (String file : dummySet) {
+        for (String file : status.getStagedFiles()) {
             System.out.println(file);
         }
         System.out.println();
 
         System.out.println("=== Removed Files ===");
-        dummySet = stagingArea.getRemoveStageFiles();
-        for (String file : dummySet) {
+        for (String file : status.getRemovedFiles()) {
             System.out.println(file);
         }
         System.out.println();
 
         System.out.println("=== Modifications Not Staged For Commit ===");
-        dummySet = LocalTree.currentlyTrackingFiles();
-        for (String file : dummySet) {
-            boolean isChangedInWorkingDir = Repository.isChangedInWorkingDir(file,
-                                                                LocalTree.readHead());
-            boolean isStaged = stagingArea.isInStage(file);
-            if (isChangedInWorkingDir && !isStaged) {
-                System.out.println(file + " " + "(modified)");
-                continue;
-            }
-
-            boolean isDeletedInCWD = !join(Repository.CWD, file).exists();
-            boolean isStageForRemoval = stagingArea.isInRemoveStage(file);
-            if (!isStageForRemoval && isDeletedInCWD) {
-                System.out.println(file + " " + "(deleted)");
-            }
-        }
-
-        dummySet = stagingArea.getAddStageFiles();
-        for (String file : dummySet) {
-
-            boolean isChangedInWorkingDir = Repository.isChangedInWorkingDir(file, stagingArea);
-            if (isChangedInWorkingDir) {
-                System.out.println(file + " " + "(modified)");
-                continue;
-            }
-
-            boolean isDeletedInCWD = !join(Repository.CWD, file).exists();
-            if (isDeletedInCWD) {
-                System.out.println(file + " " + "(deleted)");
-            }
+        for (String modification : status.getModifications()) {
+            System.out.println(modification);
         }
         System.out.println();
 
         System.out.println("=== Untracked Files ===");
-        List<String> filesInCWD = plainFilenamesIn(Repository.CWD);
-        for (String file : filesInCWD) {
-            boolean isInWorkingDirectory = join(Repository.CWD, file).exists();
-            boolean isStageForAddition = stagingArea.isInAddStage(file);
-            boolean isCurrentlyTracking = LocalTree.isFileInHead(file);
-
-            if (isInWorkingDirectory && !isStageForAddition && !isCurrentlyTracking) {
-                System.out.println(file);
-            }
+        for (String file : status.getUntrackedFiles()) {
+            System.out.println(file);
         }
         System.out.println();
+
+        // Keep the hashes of the files read above for the next command.
+        if (stagingArea.isIndexChanged()) {
+            stagingArea.saveStagingArea(defaultIsRemote);
+        }
     }
 
     /**
@@ -475,36 +468,17 @@ public class CommandAssembler {
      * @param commitId the commitId of the commit where the head will be reset.
      */
     static void reset(String commitId) {
-        Commit givenCommit = LocalTree.retrieveCommit(commitId);
-        if (givenCommit == null) {
+        String hashedCommit = LocalTree.resolveCommitId(commitId);
+        if (hashedCommit == null) {
             throw error("No commit with that id exists.");
         }
+        Commit givenCommit = LocalTree.retrieveCommit(hashedCommit);
 
-        Set<String> currentlyTrackingFiles = LocalTree.currentlyTrackingFiles();
-        Set<String> givenCommitFiles = givenCommit.getFileNames();
-
-        for (String workingFile : plainFilenamesIn(Repository.CWD)) {
-            if (!currentlyTrackingFiles.contains(workingFile)
-                    && givenCommitFiles.contains(workingFile)) {
-                throw error("There is an untracked file in the way; delete it, "
-                        + "or add and commit it first.");
-            }
-        }
-
-        for (String filename : givenCommitFiles) {
-            checkoutWithCommitId(commitId, filename, false);
-        }
-
-        for (String currentlyTrackingFile : currentlyTrackingFiles) {
-            if (!givenCommitFiles.contains(currentlyTrackingFile)) {
-                File cwdFile = join(Repository.CWD, currentlyTrackingFile);
-                restrictedDelete(cwdFile);
-            }
-        }
-
-        LocalTree.changeHeadToCommit(commitId);
-        LocalTree.changeBranch(LocalTree.readCurrentBranch(), commitId);
         stagingArea = StagingArea.readStagingArea(defaultIsRemote);
+        switchFiles(LocalTree.readHeadCommit(), givenCommit, stagingArea, false);
+
+        LocalTree.changeHeadToCommit(hashedCommit);
+        LocalTree.changeBranch(LocalTree.readCurrentBranch(), hashedCommit);
         stagingArea.empty();
         stagingArea.saveStagingArea(defaultIsRemote);
     }
@@ -596,24 +570,26 @@ public class CommandAssembler {
         }
 
         Commit givenBranchCommit = LocalTree.readBranchCommit(branchName);
-        Set<String> givenBranchFileNames = givenBranchCommit.getFileNames();
-
         Commit currentBranchCommit = LocalTree.readCurrentBranchCommit();
-        Set<String> currBranchFileNames = currentBranchCommit.getFileNames();
-
         Commit splitPointCommit = LocalTree.getSplitPointCommit(branchName,
                 currBranch);
-        Set<String> splitPointFileNames = splitPointCommit.getFileNames();
-
-        List<String> cwdFiles = plainFilenamesIn(Repository.CWD);
-        for (String cwdFile: cwdFiles) {
-            if (!currBranchFileNames.contains(cwdFile)
-                    && givenBranchFileNames.contains(cwdFile)
-                    && !splitPointFileNames.contains(cwdFile)) {
-                throw error("There is an untracked file in the way; delete it, "
-                        + "or add and commit it first.");
+
+        // Every case below changes a file only if the given branch changed it since
+        // the split point, so the other files, and the unchanged subtrees, are skipped.
+        Set<String> givenBranchChangedFiles = splitPointCommit.changedFiles(givenBranchCommit);
+
+        List<String> inTheWay = new ArrayList<>();
+        for (String changedFile : givenBranchChangedFiles) {
+            if (!currentBranchCommit.isTracking(changedFile)
+                    && givenBranchCommit.isTracking(changedFile)
+                    && !splitPointCommit.isTracking(changedFile)) {
+                inTheWay.add(changedFile);
             }
         }
+        if (!WorkingTree.plainFiles(Repository.CWD, inTheWay, defaultIsRemote).isEmpty()) {
+            throw error("There is an untracked file in the way; delete it, "
+                    + "or add and commit it first.");
+        }
 
         // Real Cases
         if (LocalTree.isBranchCommitInBranchPath(branchName, currBranch)) {
@@ -626,18 +602,14 @@ public class CommandAssembler {
         }
 
         boolean isConflict = false;
-        isConflict = mergeCheckSplitFiles(branchName,
-                splitPointFileNames, splitPointCommit,
-                givenBranchFileNames, givenBranchCommit,
-                currBranchFileNames, currentBranchCommit,
+        isConflict = mergeCheckSplitFiles(branchName, givenBranchChangedFiles,
+                splitPointCommit, givenBranchCommit, currentBranchCommit,
                 isConflict);
 
 
         // Case 5
-        isConflict = mergeCheckGivenFiles(branchName,
-                splitPointFileNames, splitPointCommit,
-                givenBranchFileNames, givenBranchCommit,
-                currBranchFileNames, currentBranchCommit,
+        isConflict = mergeCheckGivenFiles(branchName, givenBranchChangedFiles,
+                splitPointCommit, givenBranchCommit, currentBranchCommit,
                 isConflict);
 
         stagingArea.saveStagingArea(defaultIsRemote);
@@ -654,6 +626,30 @@ public class CommandAssembler {
     }
 
 
+    /**
+     * Move every loose commit and blob of the repository into the packs of the
+     * .gitlet/commits and .gitlet/blobs folders. Reading the objects afterwards is
+     * done through the pack index instead of one file per object.
+     */
+    static void repack() {
+        Repository.repack();
+    }
+
+    /**
+     * Print the value of a repository setting, or change it when a value is given.
+     * The settings are saved in .gitlet/CONFIG (see Config).
+     * @param key the name of the setting, e.g. core.compression
+     * @param value the new value of the setting, null to print the current one
+     */
+    static void config(String key, String value) {
+        if (value == null) {
+            System.out.println(Config.get(key, false));
+        } else {
+            Config.set(key, value);
+        }
+    }
+
+
     static void addRemote(String remoteName, String relativePath) throws IOException {
         String fixedPath = relativePath.replace('/', File.separatorChar);
         Remote.saveRemote(remoteName, fixedPath);
@@ -681,7 +677,8 @@ public class CommandAssembler {
         if (RemoteTree.isABranch(remoteBranchName)) {
             String remoteBranchHeadId = RemoteTree.getBranchCommitId(remoteBranchName);
             isRemoteInPathOfLocal = LocalTree.getAncestors(
-                    LocalTree.getBranchCommitId(remoteBranchName)).contains(remoteBranchHeadId);
+                    LocalTree.getBranchCommitId(remoteBranchName)).contains(
+                    ObjectId.fromHex(remoteBranchHeadId));
 
             if (!isRemoteInPathOfLocal) {
                 throw error("Please pull down remote changes before pushing.");
@@ -700,12 +697,8 @@ public class CommandAssembler {
                 localBranchCommitId);
 
         // For each commit copied
+        Set<String> hashedBlobs = new LinkedHashSet<>();
         for (String hashedCommit : localNonRepeatingFamily) {
-            File localCommit = join(Repository.COMMITS_FOLDER, hashedCommit);
-            Path localCommitPath = localCommit.toPath();
-            File remoteCommit = join(Repository.REMOTE_COMMITS_FOLDER, hashedCommit);
-            Path remoteCommitPath = remoteCommit.toPath();
-            Files.copy(localCommitPath, remoteCommitPath);
             // handle diff init case
             /*
             Commit commit = readObject(localCommit, Commit.class);
@@ -715,25 +708,20 @@ public class CommandAssembler {
             }
             */
 
-            // Copy the corresponding file blobs
-            Set<String> localTrackingFiles = LocalTree.retrieveCommit(hashedCommit).getFileNames();
-            for (String fileName : localTrackingFiles) {
-                String hashedBlob = LocalTree.retrieveCommit(hashedCommit).getFromFileBlob(
-                        fileName);
-                File localFile = join(Repository.BLOBS_FOLDER, hashedBlob);
-                File remoteFile = join(Repository.REMOTE_BLOBS_FOLDER, hashedBlob);
-                if (!remoteFile.exists()) {
-                    Path localBlobPath = localFile.toPath();
-                    Path remoteBlobPath = remoteFile.toPath();
-                    Files.copy(localBlobPath, remoteBlobPath);
-                }
-            }
+            // Collect the corresponding file blobs and manifest nodes
+            LocalTree.retrieveCommit(hashedCommit).missingObjects(
+                    Repository.blobStore(true), hashedBlobs);
         }
 
+        // Copy the blobs before the commits, so a copied commit never misses a blob
+        Repository.blobStore(false).copyTo(Repository.blobStore(true), hashedBlobs);
+        Repository.commitStore(false).copyTo(Repository.commitStore(true),
+                localNonRepeatingFamily);
+
         // If the remote head is at remote branch, change the head (reset).
         // otherwise leave the head and current branch pointer.
         if (LocalTree.getAncestors(LocalTree.getBranchCommitId(remoteBranchName)).contains(
-                RemoteTree.readHead())) {
+                ObjectId.fromHex(RemoteTree.readHead()))) {
             remoteReset(localBranchCommitId);
         }
 
@@ -767,12 +755,8 @@ public class CommandAssembler {
                 remoteBranchCommitId);
 
         // For each commit copied
+        Set<String> hashedBlobs = new LinkedHashSet<>();
         for (String hashedCommit : remoteNonRepeatingFamily) {
-            File remoteCommit = join(Repository.REMOTE_COMMITS_FOLDER, hashedCommit);
-            Path remoteCommitPath = remoteCommit.toPath();
-            File localCommit = join(Repository.COMMITS_FOLDER, hashedCommit);
-            Path localCommitPath = localCommit.toPath();
-            Files.copy(remoteCommitPath, localCommitPath);
             // handle diff init case
             /*
             Commit commit = readObject(remoteCommit, Commit.class);
@@ -782,22 +766,16 @@ public class CommandAssembler {
             }
             */
 
-            // Copy the corresponding file blobs
-            Set<String> remoteTrackingFiles = RemoteTree.retrieveCommit(
-                    hashedCommit).getFileNames();
-            for (String fileName : remoteTrackingFiles) {
-                String hashedBlob = RemoteTree.retrieveCommit(hashedCommit).getFromFileBlob(
-                        fileName);
-                File remoteFile = join(Repository.REMOTE_BLOBS_FOLDER, hashedBlob);
-                File localFile = join(Repository.BLOBS_FOLDER, hashedBlob);
-                if (!localFile.exists()) {
-                    Path localBlobPath = localFile.toPath();
-                    Path remoteBlobPath = remoteFile.toPath();
-                    Files.copy(remoteBlobPath, localBlobPath);
-                }
-            }
+            // Collect the corresponding file blobs and manifest nodes
+            RemoteTree.retrieveCommit(hashedCommit).missingObjects(
+                    Repository.blobStore(false), hashedBlobs);
         }
 
+        // Copy the blobs before the commits, so a copied commit never misses a blob
+        Repository.blobStore(true).copyTo(Repository.blobStore(false), hashedBlobs);
+        Repository.commitStore(true).copyTo(Repository.commitStore(false),
+                remoteNonRepeatingFamily);
+
     }
 
     static void remotePull(String remoteName, String remoteBranchName) throws IOException {
@@ -822,41 +800,24 @@ public class CommandAssembler {
                 Repository.COMMITS_FOLDER_NAME);
         Repository.REMOTE_STAGE = join(Repository.REMOTE_GITLET_DIR, Repository.STAGE_NAME);
         Repository.REMOTE_REMOTE = join(Repository.REMOTE_GITLET_DIR, Repository.REMOTE_NAME);
+        Repository.assignRemoteStores();
+        Repository.upgrade(Repository.REMOTE_GITLET_DIR, true);
         // Repository.REMOTE_INIT = join(Repository.REMOTE_GITLET_DIR, Repository.INIT_NAME);
     }
 
 
     private static void remoteReset(String commitId) {
-        Commit givenCommit = RemoteTree.retrieveCommit(commitId);
-        if (givenCommit == null) {
+        String hashedCommit = RemoteTree.resolveCommitId(commitId);
+        if (hashedCommit == null) {
             throw error("No commit with that id exists.");
         }
+        Commit givenCommit = RemoteTree.retrieveCommit(hashedCommit);
 
-        Set<String> currentlyTrackingFiles = RemoteTree.currentlyTrackingFiles();
-        Set<String> givenCommitFiles = givenCommit.getFileNames();
-
-        for (String workingFile : plainFilenamesIn(Repository.REMOTE_CWD)) {
-            if (!currentlyTrackingFiles.contains(workingFile)
-                    && givenCommitFiles.contains(workingFile)) {
-                throw error("There is an untracked file in the way; delete it, "
-                        + "or add and commit it first.");
-            }
-        }
-
-        for (String filename : givenCommitFiles) {
-            checkoutWithCommitId(commitId, filename, true);
-        }
-
-        for (String currentlyTrackingFile : currentlyTrackingFiles) {
-            if (!givenCommitFiles.contains(currentlyTrackingFile)) {
-                File cwdFile = join(Repository.REMOTE_CWD, currentlyTrackingFile);
-                restrictedDelete(cwdFile);
-            }
-        }
-
-        RemoteTree.changeHeadToCommit(commitId);
-        RemoteTree.changeBranch(RemoteTree.readCurrentBranch(), commitId);
         stagingArea = StagingArea.readStagingArea(true);
+        switchFiles(RemoteTree.readHeadCommit(), givenCommit, stagingArea, true);
+
+        RemoteTree.changeHeadToCommit(hashedCommit);
+        RemoteTree.changeBranch(RemoteTree.readCurrentBranch(), hashedCommit);
         stagingArea.empty();
         stagingArea.saveStagingArea(true);
     }
@@ -898,38 +859,10 @@ public class CommandAssembler {
         }
 
         Commit currCommit = LocalTree.readCurrentBranchCommit();
-        Set<String> currCommitFileNames = currCommit.getFileNames();
-        List<String> cwdFiles = plainFilenamesIn(Repository.CWD);
-
         Commit branchCommit = LocalTree.readBranchCommit(branchName);
-        Set<String> branchCommitFileNames = branchCommit.getFileNames();
-
-        for (String f : cwdFiles) {
-            if (!currCommitFileNames.contains(f) && branchCommitFileNames.contains(f)) {
-                throw error("There is an untracked file in the way; delete it,"
-                        + " or add and commit it first.");
-            }
-        }
-
-
-        for (String f : branchCommitFileNames) {
-            Blob copyBlob = Blob.readBlob(branchCommit.getFromFileBlob(f), defaultIsRemote);
-            File replaceFile = join(Repository.CWD, f);
-            try {
-                replaceFile.createNewFile();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            writeContents(join(Repository.CWD, f), copyBlob.getContent());
-        }
-
-        for (String f : currCommitFileNames) {
-            if (!branchCommitFileNames.contains(f)) {
-                restrictedDelete(f);
-            }
-        }
-
         stagingArea = StagingArea.readStagingArea(defaultIsRemote);
+        switchFiles(currCommit, branchCommit, stagingArea, defaultIsRemote);
+
         stagingArea.empty();
         stagingArea.saveStagingArea(defaultIsRemote);
         LocalTree.changeHeadToBranchCommit(branchName);
@@ -973,13 +906,8 @@ public class CommandAssembler {
             throw error("File does not exist in that commit.");
         }
 
-        try {
-            replaceFile.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
         Blob copyBlob = Blob.readBlob(commit.getFromFileBlob(filename), isRemote);
-        writeContents(join(workingDirectory, filename), copyBlob.getContent());
+        copyBlob.writeTo(replaceFile);
 
     }
 
@@ -996,15 +924,10 @@ public class CommandAssembler {
         Blob copyBlob = Blob.readBlob(LocalTree.readHeadCommit().getFromFileBlob(filename),
                 defaultIsRemote);
         File replaceFile = join(Repository.CWD, filename);
-        try {
-            if (!replaceFile.exists()) {
-                throw error("File does not exist in that commit.");
-            }
-            replaceFile.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (!replaceFile.exists()) {
+            throw error("File does not exist in that commit.");
         }
-        writeContents(join(Repository.CWD, filename), copyBlob.getContent());
+        copyBlob.writeTo(replaceFile);
     }
 
     /**
@@ -1028,21 +951,115 @@ public class CommandAssembler {
     }
 
     /**
-     * Copy filenames-hashedblob pair from "from" to "to".
-     * Attention : All commit saves filename-hashedblob pair.
+     * Stage the working files at PATHS, whose hashes are HASHES, against the commit
+     * HEAD: a file with the version in HEAD is no longer staged for addition, and any
+     * other is staged for addition, its content saved first if the blob store does
+     * not have it yet. Either way, the file is no longer staged for removal.
+     * <p>
+     * The contents are saved on this thread, one after the other, each once however
+     * many files have it.
+     *
+     * @param head   : the head commit
+     * @param paths  : the tracked paths of the working files
+     * @param hashes : the hash of the content of each of the working files
+     */
+    private static void stageWorkingFiles(Commit head, Collection<String> paths,
+                                          Map<String, String> hashes) {
+        ObjectStore blobStore = Repository.blobStore(defaultIsRemote);
+        Set<String> saved = new HashSet<>();
+        for (String path : paths) {
+            String hashedContent = hashes.get(path);
+            String baseHash = head.getFromFileBlob(path);
+            if (hashedContent.equals(baseHash)) {
+                stagingArea.deleteFromAddStage(path);
+            } else {
+                if (!saved.contains(hashedContent) && !blobStore.contains(hashedContent)) {
+                    hashedContent = Blob.saveFile(join(Repository.CWD, path), baseHash,
+                            defaultIsRemote).getHashCode();
+                }
+                saved.add(hashedContent);
+                stagingArea.addToAddStage(path, hashedContent);
+            }
+
+            if (stagingArea.isInRemoveStage(path)) {
+                stagingArea.deleteFromRemoveStage(path);
+            }
+        }
+    }
+
+    /**
+     * Change the working directory from the files of one commit to those of another,
+     * as checkout of a branch and reset do. The files that differ between the two
+     * commits are written or deleted; subtrees that are the same in both are not read
+     * to find them (see Manifest.changedFiles). Every other file tracked by TO is
+     * compared with its working version through the index of STAGE, so that only the
+     * files changed in the working directory are read, and written again if changed.
+     * <p>
+     * If a working file is untracked in FROM and would be overwritten, print "There is
+     * an untracked file in the way; delete it, or add and commit it first." and exit
+     * before changing anything.
+     *
+     * @param from     : the commit whose files are in the working directory
+     * @param to       : the commit whose files are put in the working directory
+     * @param stage    : the staging area, whose index records the hashed files
+     * @param isRemote : if the working directory is the one of the remote repository
+     */
+    private static void switchFiles(Commit from, Commit to, StagingArea stage,
+                                    boolean isRemote) {
+        File workingDirectory = isRemote ? Repository.REMOTE_CWD : Repository.CWD;
+        Set<String> changedFiles = from.changedFiles(to);
+
+        List<String> inTheWay = new ArrayList<>();
+        for (String f : changedFiles) {
+            if (!from.isTracking(f) && to.isTracking(f)) {
+                inTheWay.add(f);
+            }
+        }
+        if (!WorkingTree.plainFiles(workingDirectory, inTheWay, isRemote).isEmpty()) {
+            throw error("There is an untracked file in the way; delete it,"
+                    + " or add and commit it first.");
+        }
+
+        List<String> unchanged = new ArrayList<>();
+        for (String f : to.getFileBlobs().keySet()) {
+            if (!changedFiles.contains(f)) {
+                unchanged.add(f);
+            }
+        }
+        Map<String, String> workingHashes = stage.hashWorkingFiles(workingDirectory,
+                unchanged, isRemote);
+
+        // Delete before writing, so a deleted file never stands in the way of a
+        // directory of the same name.
+        for (String f : changedFiles) {
+            if (!to.isTracking(f)) {
+                Repository.deleteWorkingFile(workingDirectory, f);
+            }
+        }
+        for (String f : changedFiles) {
+            String hashedBlob = to.getFromFileBlob(f);
+            if (hashedBlob != null) {
+                Blob.readBlob(hashedBlob, isRemote).writeTo(join(workingDirectory, f));
+            }
+        }
+        for (String f : unchanged) {
+            String hashedBlob = to.getFromFileBlob(f);
+            if (!hashedBlob.equals(workingHashes.get(f))) {
+                Blob.readBlob(hashedBlob, isRemote).writeTo(join(workingDirectory, f));
+            }
+        }
+    }
+
+    /**
+     * Give "to" the filename-hashedblob pairs of "from".
+     * Attention : All commit saves filename-hashedblob pair. The pairs are not
+     * copied one by one; "to" shares the manifest of "from" (see Manifest).
      *
      * @param from : Commit Object where filename-hashedblob pair is being copied from.
      * @param to   : Commit object where the copied content of "from" is being copied to.
      */
     private static void commitToCommit(Commit from, Commit to) {
-        Collection<String> fromTrackingFileNames = from.getFileNames();
-        if (fromTrackingFileNames == null) {
-            return;
-        }
-        for (String filename : fromTrackingFileNames) {
-            String hashedBlob = from.getFromFileBlob(filename);
-            to.addToFileBlob(filename, hashedBlob);
-        }
+        to.inheritFiles(from);
     }
 
     /**
@@ -1068,30 +1085,33 @@ public class CommandAssembler {
                                            String curContent, String givenContent) {
 
         File f = join(Repository.CWD, target);
+        f.getParentFile().mkdirs();
         String newContent = "<<<<<<< HEAD" + "\n" + curContent
                 + "=======" + "\n" + givenContent + ">>>>>>>\n";
 
-        new Blob(newContent).saveBlob(defaultIsRemote);
-        stagingArea.addToAddStage(target, sha1(newContent));
+        Blob conflictBlob = Blob.saveContents(newContent.getBytes(StandardCharsets.UTF_8),
+                defaultIsRemote);
+        stagingArea.addToAddStage(target, conflictBlob.getHashCode());
         writeContents(f, newContent);
     }
 
     private static boolean mergeCheckGivenFiles(String branchName,
-                                                Set<String> splitPointFileNames,
+                                                Set<String> givenBranchChangedFiles,
                                                 Commit splitPointCommit,
-                                                Set<String> givenBranchFileNames,
                                                 Commit givenBranchCommit,
-                                                Set<String> currBranchFileNames,
                                                 Commit currentBranchCommit,
                                                 boolean isConflict) {
         boolean prevIsConflict = isConflict;
-        for (String givenBranchFile : givenBranchFileNames) {
+        for (String givenBranchFile : givenBranchChangedFiles) {
 
             String givenBranchHashedContent = givenBranchCommit.getFromFileBlob(
                     givenBranchFile);
+            if (givenBranchHashedContent == null) {
+                continue;
+            }
 
-            if (!splitPointFileNames.contains(givenBranchFile)
-                    && !currBranchFileNames.contains(givenBranchFile)) {
+            if (!splitPointCommit.isTracking(givenBranchFile)
+                    && !currentBranchCommit.isTracking(givenBranchFile)) {
 
                 String branchCommitId = LocalTree.getBranchCommitId(branchName);
 
@@ -1101,8 +1121,8 @@ public class CommandAssembler {
 
             // Case 8 the file was absent at the split point and has different contents
             // in the given and current branches
-            if (!splitPointFileNames.contains(givenBranchFile)
-                    && currBranchFileNames.contains(givenBranchFile)) {
+            if (!splitPointCommit.isTracking(givenBranchFile)
+                    && currentBranchCommit.isTracking(givenBranchFile)) {
 
                 prevIsConflict = true;
                 String givenBranchContent = Blob.readBlob(
@@ -1118,16 +1138,20 @@ public class CommandAssembler {
     }
 
     private static boolean mergeCheckSplitFiles(String branchName,
-                        Set<String> splitPointFileNames, Commit splitPointCommit,
-                        Set<String> givenBranchFileNames, Commit givenBranchCommit,
-                        Set<String> currBranchFileNames, Commit currentBranchCommit,
+                        Set<String> givenBranchChangedFiles, Commit splitPointCommit,
+                        Commit givenBranchCommit, Commit currentBranchCommit,
                                                 boolean isConflict) {
         boolean prevIsConflict = isConflict;
-        for (String splitPointFileName : splitPointFileNames) {
+        for (String splitPointFileName : givenBranchChangedFiles) {
             String splitBranchHashedContent = splitPointCommit.getFromFileBlob(
                     splitPointFileName);
-            if (givenBranchFileNames.contains(splitPointFileName)
-                    && currBranchFileNames.contains(splitPointFileName)) {
+            if (splitBranchHashedContent == null) {
+                continue;
+            }
+            boolean isInGivenBranch = givenBranchCommit.isTracking(splitPointFileName);
+            boolean isInCurrBranch = currentBranchCommit.isTracking(splitPointFileName);
+            if (isInGivenBranch
+                    && isInCurrBranch) {
 
                 String givenBranchHashedContent = givenBranchCommit.getFromFileBlob(
                         splitPointFileName);
@@ -1155,8 +1179,8 @@ public class CommandAssembler {
                 }
             }
 
-            if (givenBranchFileNames.contains(splitPointFileName)
-                    && !currBranchFileNames.contains(splitPointFileName)) {
+            if (isInGivenBranch
+                    && !isInCurrBranch) {
 
                 String givenBranchHashedContent = givenBranchCommit.getFromFileBlob(
                         splitPointFileName);
@@ -1169,8 +1193,8 @@ public class CommandAssembler {
                 }
             }
 
-            if (currBranchFileNames.contains(splitPointFileName)
-                    && !givenBranchFileNames.contains(splitPointFileName)) {
+            if (isInCurrBranch
+                    && !isInGivenBranch) {
 
                 String currBranchHashedContent = currentBranchCommit.getFromFileBlob(
                         splitPointFileName);
@@ -1183,14 +1207,14 @@ public class CommandAssembler {
                 }
             }
 
-            if (!givenBranchFileNames.contains(splitPointFileName)
-                    && currBranchFileNames.contains(splitPointFileName)) {
+            if (!isInGivenBranch
+                    && isInCurrBranch) {
 
                 String currBranchHashedContent = currentBranchCommit.getFromFileBlob(
                         splitPointFileName);
 
                 if (currBranchHashedContent.equals(splitBranchHashedContent)) {
-                    restrictedDelete(join(Repository.CWD, splitPointFileName));
+                    Repository.deleteWorkingFile(Repository.CWD, splitPointFileName);
                     stagingArea.addToRemoveStage(splitPointFileName);
                 }
             }
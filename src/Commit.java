@@ -1,9 +1,9 @@
 package src;
 
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -16,7 +16,7 @@ import static src.Utils.*;
  *  @author KAUNG SI THU
  */
 
-class Commit implements Serializable {
+class Commit {
 
 
     /********************************************************************************
@@ -37,14 +37,28 @@ class Commit implements Serializable {
     /** The message of this commit. */
     private String message;
 
-    /** The timestamp of this commit. */
-    private Date timestamp;
+    /** The timestamp of this commit in milliseconds since the epoch. */
+    private long timestamp;
 
-    /** Hashed parent commit. */
-    private List<String> parents;
+    /** Hashed parent commits, the first parent first. */
+    private ObjectId[] parents;
 
-    /** file-name keyed hashed-blob-content. */
-    private TreeMap<String, String> fileBlobs;
+    /** The tracked files, null until the saved manifest of a decoded commit is
+     *  first needed (see files). */
+    private Manifest files;
+
+    /** file-name keyed hashed-blob-content, null until every file is asked for. */
+    private TreeMap<String, ObjectId> fileBlobs;
+
+    /** The saved manifest of a decoded commit, null once it is decoded, with the
+     *  version of the format it was saved in and the blob store of its nodes. */
+    private ByteBuffer manifest;
+    private int manifestVersion;
+    private ObjectStore manifestStore;
+
+    /** The number of files the saved manifest holds, and its byte length. */
+    private int manifestCount;
+    private int manifestLength;
 
 
     
@@ -67,19 +81,33 @@ class Commit implements Serializable {
         this.message = message;
         DateFormat df = new SimpleDateFormat("\\w\\w\\w \\w\\w\\w \\d+ \\d\\d:\\d\\d:\\d\\d \\d\\d\\d\\d [-+]\\d\\d\\d\\d");
         if (parents.length == 0) {
-            timestamp = new Date(0);
+            timestamp = 0;
         } else if (parents.length >= 1) {
-            timestamp = new Date();
+            timestamp = System.currentTimeMillis();
         }
 
         if (parents.length > 2) {
             throw error("Gitlet only allows atmost 2 parents");
         }
 
-        this.parents = new ArrayList<>();
-        this.parents.addAll(Arrays.asList(parents));
+        this.parents = Arrays.stream(parents).filter(Objects::nonNull)
+            .map(ObjectId::fromHex).toArray(ObjectId[]::new);
+
+        files = Manifest.empty();
+    }
 
-        fileBlobs = new TreeMap<>();
+    /**
+     * Commit Constructor used by CommitCodec to rebuild a saved commit, whose files
+     * are given by setManifest.
+     * @param message commit message
+     * @param timestamp commit time in milliseconds since the epoch
+     * @param parents the hashed parents of this commit
+     */
+    Commit(String message, long timestamp, ObjectId[] parents) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.parents = parents;
+        this.files = Manifest.empty();
     }
 
 
@@ -93,13 +121,42 @@ class Commit implements Serializable {
      ********************************************************************************/
 
 
+    /**
+     * Give this commit the files saved in MANIFEST, to be decoded the first time
+     * they are needed. Used by CommitCodec, in place of decoding them right away.
+     * @param version the version of the format the commit was saved in
+     * @param fileCount the number of files in the manifest
+     * @param manifest the saved manifest (see CommitCodec)
+     * @param store the blob store holding the other nodes of the manifest
+     */
+    void setManifest(int version, int fileCount, ByteBuffer manifest, ObjectStore store) {
+        this.files = null;
+        this.fileBlobs = null;
+        this.manifest = manifest;
+        this.manifestVersion = version;
+        this.manifestStore = store;
+        this.manifestCount = fileCount;
+        this.manifestLength = manifest.remaining();
+    }
+
+    /**
+     * Start from the files of PARENT. The manifest is shared rather than copied, so
+     * this takes constant time whatever the number of files.
+     * @param parent the commit whose files this commit keeps
+     */
+    synchronized void inheritFiles(Commit parent) {
+        files = parent.files();
+        fileBlobs = null;
+    }
+
     /**
      * Add (file name, hashed blob content) pair to this commit.
      * @param filename the name of the file this commit will be tracking
      * @param hashedContent the hashed content of the file
      */
-    void addToFileBlob(String filename, String hashedContent) {
-        fileBlobs.put(filename, hashedContent);
+    synchronized void addToFileBlob(String filename, String hashedContent) {
+        files = files().put(filename, ObjectId.fromHex(hashedContent));
+        fileBlobs = null;
     }
 
     /**
@@ -107,8 +164,9 @@ class Commit implements Serializable {
      * @param filename the name of the file this commit will be no longer 
      *                 be tracking.
      */
-    void removeFromFileBlob(String filename) {
-        fileBlobs.remove(filename);
+    synchronized void removeFromFileBlob(String filename) {
+        files = files().remove(filename);
+        fileBlobs = null;
     }
 
 
@@ -125,8 +183,8 @@ class Commit implements Serializable {
      * @return Hashed first-parent of this commit, null if it does not exists.
      */
     String getParent() {
-        if (!this.parents.isEmpty()) {
-            return parents.get(0);
+        if (parents.length >= 1) {
+            return parents[0].toString();
         }
         return null;
     }
@@ -136,18 +194,27 @@ class Commit implements Serializable {
      * @return Hashed second-parent of this commit, null if it does no exists.
      */
     String getSecondParent() {
-        if (this.parents.size() >= 2) {
-            return parents.get(1);
+        if (parents.length >= 2) {
+            return parents[1].toString();
         }
         return null;
     }
+
+    /**
+     * Return the parents of this commit, for the walks of the history and the
+     * CommitCodec, which need no hexadecimal hashes.
+     * @return the hashed parents, the first parent first, empty for the initial commit
+     */
+    ObjectId[] getParentIds() {
+        return parents.clone();
+    }
     
     /**
      * Return the time stamp of this commit.
      * @return Date object representing the time stamp of this commit
      */
     Date getTimestamp() { 
-        return this.timestamp; 
+        return new Date(this.timestamp);
     }
     
     /**
@@ -163,17 +230,45 @@ class Commit implements Serializable {
      * @return the file names this commit is tracking as Set<String>
      */
     Set<String> getFileNames() {
-        return fileBlobs.descendingKeySet();
+        return fileBlobs().descendingKeySet();
+    }
+
+    /**
+     * Return the tracked files of this commit with their hashed contents,
+     * in file name order.
+     * @return a read-only view of the file-name keyed hashed-blob-content
+     */
+    SortedMap<String, ObjectId> getFileBlobs() {
+        return Collections.unmodifiableSortedMap(fileBlobs());
+    }
+
+    /**
+     * Return the number of files this commit is tracking. For a decoded commit this
+     * does not decode its files.
+     * @return the number of tracked files
+     */
+    synchronized int getFileCount() {
+        return files != null ? files.size() : manifestCount;
+    }
+
+    /**
+     * Return the byte length of the saved manifest of a decoded commit.
+     * @return the length of the saved manifest, 0 for a commit that was not decoded
+     */
+    int getManifestLength() {
+        return manifestLength;
     }
 
     /**
      * Get the file name from tracking list of this commit, will return null
-     * if no such file exists. 
+     * if no such file exists. Only the manifest nodes on the path to the file
+     * are read.
      * @param filename the requested name of the file in this commit 
      * @return the hashed content of the file name requested, null if no such file exists
      */
     String getFromFileBlob(String filename) {
-        return fileBlobs.get(filename);
+        ObjectId tracked = lookUp(filename);
+        return tracked == null ? null : tracked.toString();
     }
 
     /**
@@ -185,10 +280,9 @@ class Commit implements Serializable {
      * false otherwise.
      */
     boolean isTracking(String filename, String version) {
-        if (!fileBlobs.containsKey(filename)) {
-            return false;
-        }
-        return fileBlobs.get(filename).equals(version);
+        ObjectId tracked = lookUp(filename);
+        return tracked != null && ObjectId.isHex(version)
+            && tracked.equals(ObjectId.fromHex(version));
     }
 
     /**
@@ -199,7 +293,18 @@ class Commit implements Serializable {
      * @return true if this specific filename is in the commit. false otherwise.
      */
     boolean isTracking(String filename) {
-        return fileBlobs.containsKey(filename);
+        return lookUp(filename) != null;
+    }
+
+    /**
+     * Return the files that this commit and OTHER track differently: tracked by only
+     * one of them, or with different contents. Directories with the same tree hash in
+     * both commits are skipped without being read.
+     * @param other the commit compared with this one
+     * @return the names of the changed files, in name order
+     */
+    Set<String> changedFiles(Commit other) {
+        return files().changedFiles(other.files());
     }
     
 
@@ -208,30 +313,107 @@ class Commit implements Serializable {
     
     
     
+    /**
+     * Save the manifest nodes of this commit that are not saved yet in the blob
+     * store, before the commit itself is encoded (see CommitCodec).
+     */
+    void saveManifest(boolean isRemote) {
+        files().save(Repository.blobStore(isRemote), Config.compressionLevel(isRemote));
+    }
+
+    /**
+     * Return the saved form of the root of the manifest of this commit.
+     * @return the encoded root node (see Manifest)
+     */
+    byte[] encodeManifestRoot() {
+        return files().encodeRoot();
+    }
+
+    /**
+     * Add the manifest nodes and blobs of this commit that DESTINATION lacks to
+     * OBJECTS, in the order they are to be copied (see Manifest.missing).
+     * @param destination the blob store the objects are copied to
+     * @param objects the objects to copy
+     */
+    void missingObjects(ObjectStore destination, Set<String> objects) {
+        files().missing(destination, objects);
+    }
+
+    /**
+     * Return the files of this commit, decoding the saved manifest on first use.
+     * Decoded commits are shared through the CommitCache, hence the lock.
+     */
+    private synchronized Manifest files() {
+        if (files == null) {
+            files = CommitCodec.decodeManifest(manifestVersion, manifestCount, manifest,
+                                               manifestStore);
+            manifest = null;
+            manifestStore = null;
+        }
+        return files;
+    }
+
+    /** Return every file of this commit, read from the manifest on first use. */
+    private synchronized TreeMap<String, ObjectId> fileBlobs() {
+        if (fileBlobs == null) {
+            fileBlobs = files().files();
+        }
+        return fileBlobs;
+    }
+
+    /** Return the hashed content of the file, without reading every file. */
+    private synchronized ObjectId lookUp(String filename) {
+        if (fileBlobs != null) {
+            return fileBlobs.get(filename);
+        }
+        return files().get(filename);
+    }
+
+
+
+
+
     /********************************************************************************
      *                     Methods to Read the Commit Object                        *
      ********************************************************************************/
 
     /**
-     * Deserialize the Commit object from the filename. You should be doing this though 
-     * the Commit Tree, i.e., acheive similar performance through Commit Tree class.
+     * Decode the Commit object from the commit store of the repository. Decoded
+     * commits are kept in the CommitCache, so a commit is decoded at most once while
+     * it stays in the cache. You should be doing this though the Commit Tree, i.e.,
+     * acheive similar performance through Commit Tree class.
      * @param hashedCommitName the name of the commit in .gitlet/commits folder 
      * @return the commit object after deserializing the file in corresponding path,
      * null if failed.
      */
     static Commit readCommit(String hashedCommitName, boolean isRemote) {
+        if (!ObjectId.isHex(hashedCommitName)) {
+            return null;
+        }
+        return readCommit(ObjectId.fromHex(hashedCommitName), isRemote);
+    }
 
-        File f;
-        if (isRemote) {
-            f = join(Repository.REMOTE_COMMITS_FOLDER, hashedCommitName);
-        } else {
-            f = join(Repository.COMMITS_FOLDER, hashedCommitName);
+    /**
+     * Decode the Commit object with the given hash, as readCommit(String, boolean)
+     * does, for the walks of the history that hold the hash as an ObjectId.
+     * @param commitId the hash of the commit
+     * @return the commit object, null if there is no such commit.
+     */
+    static Commit readCommit(ObjectId commitId, boolean isRemote) {
+
+        ObjectStore store = Repository.commitStore(isRemote);
+        Commit commit = CommitCache.get(store, commitId);
+        if (commit != null) {
+            return commit;
         }
 
-        if (!f.exists()) {
+        ByteBuffer bytes = store.read(commitId.toString());
+        if (bytes == null) {
             return null;
         }
-        return readObject(f, Commit.class);
+        commit = CommitCodec.decode(bytes, Repository.blobStore(isRemote));
+        CommitCache.put(store, commitId, commit);
+        return commit;
     }
 
 
@@ -245,27 +427,22 @@ class Commit implements Serializable {
      ********************************************************************************/
     
     /**
-     * Serialize this commit to a file in the .gitlet/commits folder. You should be
+     * Save the encoded commit in the commit store of the repository. You should be
      * doing this though the Commit Tree, i.e., acheive similar performance through
      * Commit Tree class.
-     * @param hashedCommitName The file name where the commit is being seriablized to;
-     *                 should be sha1 name.
+     * @param hashedCommitName The file name where the commit is being saved to;
+     *                 should be sha1 name of the encoded commit.
+     * @param encodedCommit the commit encoded by CommitCodec, saved compressed as
+     *                      configured for the repository (see ObjectEncoding)
      */
-    void saveCommit(String hashedCommitName, boolean isRemote) {
-
-        File f;
-        if (isRemote) {
-            f = join(Repository.REMOTE_COMMITS_FOLDER, hashedCommitName);
-        } else {
-            f = join(Repository.COMMITS_FOLDER, hashedCommitName);
-        }
+    static void saveCommit(String hashedCommitName, byte[] encodedCommit, boolean isRemote) {
 
-        try {
-            f.createNewFile();
+        try (ObjectStore.Writer writer = Repository.commitStore(isRemote).newObject()) {
+            ObjectEncoding.write(new ByteArrayInputStream(encodedCommit), writer.stream(),
+                    null, Config.compressionLevel(isRemote));
+            writer.save(hashedCommitName);
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
-
-        writeObject(f, this);
     }
 }
@@ -0,0 +1,165 @@
+package src;
+
+import java.util.*;
+
+/** A bounded cache of decoded commits, least recently used first out.
+ *
+ * Commits are immutable once saved, so one decoded Commit can be handed to every
+ * caller asking for it. Within one command the same commits are asked for over and
+ * over (the head commit by status for every file, each copied commit by push for
+ * every file it tracks), and with the cache each of them is decoded once.
+ *
+ * Commits are weighed by the memory they roughly take once their files are decoded,
+ * which grows with the number of files they track, and the least recently used are
+ * evicted once the total weight exceeds MAX_WEIGHT.
+ *
+ * The cache counts the lookups that found and that missed their commit; with
+ * core.stats set (see Config), every command prints the counts once it is done.
+ *
+ *  @author KAUNG SI THU
+ */
+class CommitCache {
+
+    /** The total weight of the commits the cache may hold, in bytes. */
+    static final long MAX_WEIGHT = 16L * 1024 * 1024;
+
+    /** Rough byte sizes of a commit and of each tracked file, the ObjectId of its
+     *  content included, besides their Strings. */
+    private static final int COMMIT_OVERHEAD = 128;
+    private static final int FILE_OVERHEAD = 64 + 40;
+
+    /** A commit in a given store. */
+    private static final class Key {
+        private final ObjectStore store;
+        private final ObjectId hash;
+
+        Key(ObjectStore store, ObjectId hash) {
+            this.store = store;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return store == key.store && hash.equals(key.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(store) * 31 + hash.hashCode();
+        }
+    }
+
+    /** The cached commits, least recently used first. */
+    private static final LinkedHashMap<Key, Commit> COMMITS =
+        new LinkedHashMap<>(64, 0.75f, true);
+
+    /** The total weight of the commits in COMMITS. */
+    private static long weight = 0;
+
+    /** The number of lookups that found, and that missed, their commit. */
+    private static long hits = 0;
+    private static long misses = 0;
+
+
+
+
+
+
+    /********************************************************************************
+     *                           Methods to Use the Cache                           *
+     ********************************************************************************/
+
+    /**
+     * Return the cached commit with the given hash in STORE.
+     * @param store the commit store the commit was read from
+     * @param hash the hash of the commit
+     * @return the commit, null if it is not cached
+     */
+    static synchronized Commit get(ObjectStore store, ObjectId hash) {
+        Commit commit = COMMITS.get(new Key(store, hash));
+        if (commit == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return commit;
+    }
+
+    /**
+     * Keep the commit with the given hash in STORE, evicting the least recently used
+     * commits beyond MAX_WEIGHT.
+     * @param store the commit store the commit was read from
+     * @param hash the hash of the commit
+     * @param commit the decoded commit
+     */
+    static synchronized void put(ObjectStore store, ObjectId hash, Commit commit) {
+        Commit old = COMMITS.put(new Key(store, hash), commit);
+        if (old != null) {
+            weight -= weigh(old);
+        }
+        weight += weigh(commit);
+
+        Iterator<Commit> eldest = COMMITS.values().iterator();
+        while (weight > MAX_WEIGHT && eldest.hasNext()) {
+            weight -= weigh(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    /** Forget every cached commit, keeping the counters. */
+    static synchronized void clear() {
+        COMMITS.clear();
+        weight = 0;
+    }
+
+    /**
+     * Return the number of lookups that found their commit in the cache.
+     * @return the number of hits
+     */
+    static synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Return the number of lookups that had to decode their commit.
+     * @return the number of misses
+     */
+    static synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Return a line reporting the counters and the contents of the cache.
+     * @return the hits, the misses, and the number and weight of the cached commits
+     */
+    static synchronized String stats() {
+        return String.format("commit cache: %d hits, %d misses, %d commits (%d bytes)",
+                             hits, misses, COMMITS.size(), weight);
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /**
+     * Return the weight of a cached commit, the same before and after its files are
+     * decoded. Each saved file entry is the name, a length of a byte or so and a raw
+     * hash, so the names take about the saved manifest less the hashes. Only the root
+     * of a larger manifest is saved with the commit, and then the names are left out.
+     */
+    private static long weigh(Commit commit) {
+        long files = commit.getFileCount();
+        long names = Math.max(commit.getManifestLength() - (Utils.UID_RAW_LENGTH + 1) * files, 0);
+        return COMMIT_OVERHEAD + 2L * commit.getMessage().length()
+            + FILE_OVERHEAD * files + 2L * names;
+    }
+}
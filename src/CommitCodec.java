@@ -0,0 +1,229 @@
+package src;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static src.Utils.*;
+
+/** Encodes and decodes the saved form of a Commit.
+ *
+ * A commit is saved in a hand-written, versioned binary format instead of java.io
+ * serialization, so the saved bytes (and therefore the commit id, which is the SHA-1
+ * of those bytes) do not depend on the JVM:
+ *
+ *    byte      MAGIC ('C')
+ *    byte      VERSION
+ *    varint    number of parents, followed by the 20-byte raw hash of each parent
+ *    varint    timestamp in milliseconds since the epoch
+ *    varint    byte length of the message, followed by its UTF-8 bytes
+ *    varint    number of tracked files
+ *    bytes     the saved root node of the manifest of the files (see Manifest)
+ *
+ * Varints are unsigned LEB128 (see Utils.writeVarint).
+ *
+ * The other nodes of the manifest are objects in the blob store, so a commit only
+ * saves the nodes its changes touched and shares the rest with its parent. Commits
+ * saved in version 1 instead list every tracked file after the file count, in file
+ * name order: varint byte length of the name, its UTF-8 bytes, 20-byte raw blob
+ * hash. They are still read.
+ *
+ * Everything but the tracked files comes first, so the header of a commit is read
+ * without going through its file manifest. decode(ByteBuffer, ObjectStore) reads
+ * only the header and the file count, and leaves the rest of the buffer to the
+ * Commit, which decodes it with decodeManifest the first time its files are asked
+ * for. Walks of the history (log, find, the ancestry walks) thus never decode a
+ * manifest.
+ *
+ *  @author KAUNG SI THU
+ */
+class CommitCodec {
+
+    /** The first byte of every saved commit. */
+    static final int MAGIC = 'C';
+
+    /** The version of the format written by this codec. */
+    static final int VERSION = 2;
+
+    /** The version of the format that listed every file in the commit. */
+    static final int FLAT_VERSION = 1;
+
+
+
+
+
+
+    /********************************************************************************
+     *                             Methods to Encode a Commit                       *
+     ********************************************************************************/
+
+    /**
+     * Return the saved form of the commit, whose manifest nodes must be saved
+     * (see Commit.saveManifest).
+     * @param commit the commit being encoded
+     * @return the encoded bytes of the commit
+     */
+    static byte[] encode(Commit commit) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            encode(commit, out);
+        } catch (IOException excp) {
+            throw error("Internal error serializing commit.");
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write the saved form of the commit to OUT.
+     * @param commit the commit being encoded
+     * @param out the stream receiving the encoded bytes
+     */
+    static void encode(Commit commit, OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+
+        ObjectId[] parents = commit.getParentIds();
+        writeVarint(out, parents.length);
+        for (ObjectId parent : parents) {
+            parent.writeTo(out);
+        }
+
+        writeVarint(out, commit.getTimestamp().getTime());
+        writeString(out, commit.getMessage());
+
+        writeVarint(out, commit.getFileCount());
+        out.write(commit.encodeManifestRoot());
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                             Methods to Decode a Commit                       *
+     ********************************************************************************/
+
+    /**
+     * Return the commit saved in the remaining bytes of BUFFER. Only the header is
+     * decoded; the files of the commit are decoded from BUFFER when first needed.
+     * @param buffer the saved form of the commit, left as it was
+     * @param blobs the blob store holding the manifest nodes of the commit, null if
+     *              only the header is ever read
+     * @return the decoded commit
+     */
+    static Commit decode(ByteBuffer buffer, ObjectStore blobs) {
+        ByteBuffer saved = buffer.duplicate();
+        try {
+            InputStream in = new ByteBufferInputStream(saved);
+            int version = readVersion(in);
+            Commit commit = decodeHeader(in);
+            long fileCount = readVarint(in);
+            commit.setManifest(version, (int) fileCount, saved.slice(), blobs);
+            return commit;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the files of a commit saved in MANIFEST, which holds what follows the
+     * file count.
+     * @param version the version of the format the commit was saved in
+     * @param fileCount the number of tracked files
+     * @param manifest the saved files, left as it was
+     * @param blobs the blob store holding the manifest nodes of the commit
+     * @return the manifest of the commit
+     */
+    static Manifest decodeManifest(int version, int fileCount, ByteBuffer manifest,
+                                   ObjectStore blobs) {
+        if (version != FLAT_VERSION) {
+            return Manifest.decode(manifest, blobs);
+        }
+        InputStream in = new ByteBufferInputStream(manifest.duplicate());
+        TreeMap<String, ObjectId> fileBlobs = new TreeMap<>();
+        try {
+            for (int i = 0; i < fileCount; i += 1) {
+                String filename = readString(in);
+                fileBlobs.put(filename, ObjectId.read(in));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return Manifest.of(fileBlobs);
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /** Read the magic and the version of a saved commit, and return the version. */
+    private static int readVersion(InputStream in) throws IOException {
+        if (readByte(in) != MAGIC) {
+            throw error("Not a saved commit.");
+        }
+        int version = readByte(in);
+        if (version != VERSION && version != FLAT_VERSION) {
+            throw error("Unsupported commit format version %d.", version);
+        }
+        return version;
+    }
+
+    /** Read everything of a saved commit after its version up to its file count, and
+     *  return a commit with those and no files. */
+    private static Commit decodeHeader(InputStream in) throws IOException {
+        int parentCount = (int) readVarint(in);
+        ObjectId[] parents = new ObjectId[parentCount];
+        for (int i = 0; i < parentCount; i += 1) {
+            parents[i] = ObjectId.read(in);
+        }
+
+        long timestamp = readVarint(in);
+        String message = readString(in);
+        return new Commit(message, timestamp, parents);
+    }
+
+    /** Write VALUE to OUT as its varint byte length and its UTF-8 bytes. */
+    static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Truncated commit.");
+        }
+        return b;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Truncated commit.");
+            }
+            read += n;
+        }
+        return bytes;
+    }
+
+    /** Read a String written by writeString from IN. */
+    static String readString(InputStream in) throws IOException {
+        int length = (int) readVarint(in);
+        return new String(readFully(in, length), StandardCharsets.UTF_8);
+    }
+}
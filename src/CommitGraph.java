@@ -0,0 +1,660 @@
+package src;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static src.Utils.*;
+
+/** The parents of the commits of a repository, kept apart from the commits.
+ *
+ * Walking the history only needs the parents of each commit, yet reading a Commit
+ * decodes its whole file map. COMMIT_GRAPH keeps what the walks need in fixed-width
+ * records, so that it can be memory-mapped and read without decoding anything:
+ *
+ * COMMIT_GRAPH -- a header [magic][version][commit count], a fan-out of 256 ints
+ *                 (the number of commits whose hash starts with a byte up to each
+ *                 value), the 20-byte raw hashes of the commits in sorted order, and
+ *                 one record per commit in the same order, each
+ *                 [4-byte parent][4-byte second parent][4-byte generation]
+ *                 [8-byte timestamp].
+ *
+ * Commits are known by their position in the sorted hashes, and parents are given
+ * as positions too, NO_PARENT if there is none. The generation of a commit is one
+ * more than the largest generation of its parents, 1 for the initial commit, so
+ * a commit can never be the ancestor of a commit with a generation lower or equal
+ * to its own.
+ *
+ * The graph is written in full by the repack command. Every new commit is then
+ * appended to a log next to it, so that a commit writes a few dozen bytes however
+ * long the history is (see CommitTree.commit):
+ *
+ * COMMIT_GRAPH_LOG -- one record per commit, [20-byte hash][1-byte parent count]
+ *                     [20-byte hash of each parent][8-byte timestamp].
+ *
+ * Reading the graph maps COMMIT_GRAPH and reads the log into memory, giving the
+ * commits of the log the positions after those of COMMIT_GRAPH. A record of a
+ * commit already in the graph is skipped, so a log left over by an interrupted
+ * rewrite of COMMIT_GRAPH does no harm, and a record whose parent is in neither,
+ * such as a merge of fetched commits, is left out along with its descendants. A
+ * record half-written by an interrupted command is discarded.
+ *
+ * Once the log has more than COMPACT_MIN records and more than one per
+ * COMPACT_RATIO commits of COMMIT_GRAPH, the commit that appended to it merges it
+ * into a new COMMIT_GRAPH, which copies the fixed-width records without decoding
+ * any commit, and deletes it. A file this process has mapped is never replaced,
+ * as some systems (Windows) refuse to; the merge is then left to the next commit.
+ * Commits the graph does not have, e.g. those pushed to a remote, are read from
+ * the commit store by the walks as before (see CommitTree).
+ *
+ *  @author KAUNG SI THU
+ */
+class CommitGraph {
+
+    /** The position given for a missing parent. */
+    static final int NO_PARENT = -1;
+
+    /** The index given while writing to a parent missing from the store. */
+    private static final int MISSING = -2;
+
+    /** Magic number and format version at the start of COMMIT_GRAPH. */
+    private static final int MAGIC = 0x47434752;   // "GCGR"
+    private static final int VERSION = 1;
+
+    /** Byte sizes of the header, the fan-out, a raw hash and a record. */
+    private static final int HEADER_LENGTH = 12;
+    private static final int FAN_OUT_LENGTH = 256 * 4;
+    private static final int HASH_LENGTH = UID_RAW_LENGTH;
+    private static final int RECORD_LENGTH = 4 + 4 + 4 + 8;
+
+    /** The suffix of the log file next to a COMMIT_GRAPH file. */
+    static final String LOG_SUFFIX = "_LOG";
+
+    /** The log is merged into COMMIT_GRAPH once it has more than COMPACT_MIN records
+     *  and more than one record per COMPACT_RATIO commits of COMMIT_GRAPH. */
+    private static final int COMPACT_MIN = 128;
+    private static final int COMPACT_RATIO = 8;
+
+    /** The graphs read so far by this process, keyed by their COMMIT_GRAPH file. */
+    private static final Map<File, CommitGraph> OPENED = new HashMap<>();
+
+
+
+    /* Instance Variables */
+    /** The COMMIT_GRAPH, mapped or read, null if there is none. */
+    private final ByteBuffer graph;
+
+    /** The number of commits in COMMIT_GRAPH. */
+    private final int count;
+
+    /** Where the sorted hashes and the records start in COMMIT_GRAPH. */
+    private final int hashes;
+    private final int records;
+
+    /** The last modified time of COMMIT_GRAPH and the length of the log when they
+     *  were read. */
+    private final long modified;
+    private final long logSize;
+
+    /** The commits of the log, by position after those of COMMIT_GRAPH, and their
+     *  positions by hash. */
+    private final List<ObjectId> logHashes = new ArrayList<>();
+    private final Map<ObjectId, Integer> logPositions = new HashMap<>();
+
+    /** The parents, generation and timestamp of each commit of the log, in the
+     *  order of logHashes. */
+    private int[] logParents = new int[32];
+    private int[] logGenerations = new int[16];
+    private long[] logTimestamps = new long[16];
+
+    /**
+     * Read the COMMIT_GRAPH file F, mapped into memory if MAP and read into the heap
+     * otherwise, and its log.
+     * @param f the COMMIT_GRAPH file, which need not exist
+     */
+    private CommitGraph(File f, boolean map) throws IOException {
+        modified = f.lastModified();
+        File log = logFile(f);
+        logSize = log.length();
+        if (!f.exists()) {
+            graph = null;
+            count = 0;
+            hashes = 0;
+            records = 0;
+        } else {
+            try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                graph = map ? channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                            : ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+            }
+            if (graph.capacity() < HEADER_LENGTH + FAN_OUT_LENGTH
+                || graph.getInt(0) != MAGIC || graph.getInt(4) != VERSION) {
+                throw error("Corrupted commit graph.");
+            }
+            count = graph.getInt(8);
+            hashes = HEADER_LENGTH + FAN_OUT_LENGTH;
+            records = hashes + count * HASH_LENGTH;
+        }
+        if (log.exists()) {
+            readLog(Files.readAllBytes(log.toPath()));
+        }
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                         Methods to Read the Commit Graph                     *
+     ********************************************************************************/
+
+    /**
+     * Return the graph in the COMMIT_GRAPH file F and its log, mapping F on first
+     * use or when it was rewritten since it was mapped, and reading the log again
+     * when it grew.
+     * @param f the COMMIT_GRAPH file
+     * @return the graph of F, an empty graph if neither F nor its log exist.
+     */
+    static CommitGraph open(File f) {
+        CommitGraph opened = OPENED.get(f);
+        if (opened != null && opened.modified == f.lastModified()
+            && opened.logSize == logFile(f).length()) {
+            return opened;
+        }
+
+        try {
+            opened = new CommitGraph(f, true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        OPENED.put(f, opened);
+        return opened;
+    }
+
+    /**
+     * Return the number of commits in the graph.
+     * @return the number of commits
+     */
+    int size() {
+        return count + logHashes.size();
+    }
+
+    /**
+     * Return the position of a commit in the graph, found with the fan-out and a
+     * binary search over the hashes starting with the same byte.
+     * @param hash the hash of the commit
+     * @return the position of the commit, -1 if it is not in the graph.
+     */
+    int position(ObjectId hash) {
+        if (count == 0) {
+            return logPositions.getOrDefault(hash, -1);
+        }
+        int first = hash.firstByte();
+        int low = first == 0 ? 0 : graph.getInt(HEADER_LENGTH + 4 * (first - 1));
+        int high = graph.getInt(HEADER_LENGTH + 4 * first) - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = hash.compareTo(graph, hashes + mid * HASH_LENGTH);
+            if (cmp > 0) {
+                low = mid + 1;
+            } else if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return logPositions.getOrDefault(hash, -1);
+    }
+
+    /**
+     * Return the hash of the commit at a position.
+     * @param position the position of the commit
+     * @return the hash of the commit
+     */
+    ObjectId hash(int position) {
+        if (position >= count) {
+            return logHashes.get(position - count);
+        }
+        return ObjectId.fromRaw(graph, hashes + position * HASH_LENGTH);
+    }
+
+    /**
+     * Return the position of the first parent of the commit at a position.
+     * @param position the position of the commit
+     * @return the position of the parent, NO_PARENT for the initial commit.
+     */
+    int parent(int position) {
+        if (position >= count) {
+            return logParents[2 * (position - count)];
+        }
+        return graph.getInt(records + position * RECORD_LENGTH);
+    }
+
+    /**
+     * Return the position of the second parent of the commit at a position.
+     * @param position the position of the commit
+     * @return the position of the second parent, NO_PARENT unless it is a merge.
+     */
+    int secondParent(int position) {
+        if (position >= count) {
+            return logParents[2 * (position - count) + 1];
+        }
+        return graph.getInt(records + position * RECORD_LENGTH + 4);
+    }
+
+    /**
+     * Return the generation of the commit at a position.
+     * @param position the position of the commit
+     * @return the generation of the commit, 1 for the initial commit
+     */
+    int generation(int position) {
+        if (position >= count) {
+            return logGenerations[position - count];
+        }
+        return graph.getInt(records + position * RECORD_LENGTH + 8);
+    }
+
+    /**
+     * Return the timestamp of the commit at a position.
+     * @param position the position of the commit
+     * @return the time of the commit in milliseconds since the epoch
+     */
+    long timestamp(int position) {
+        if (position >= count) {
+            return logTimestamps[position - count];
+        }
+        return graph.getLong(records + position * RECORD_LENGTH + 12);
+    }
+
+    /**
+     * Mark every ancestor of the commit at a position, not the commit itself, in
+     * REACHED. Commits already marked are not walked again, so several calls with
+     * the same REACHED walk each commit at most once.
+     * @param position the position of the commit
+     * @param reached the positions reached so far
+     */
+    void markAncestors(int position, BitSet reached) {
+        int[] fringe = new int[16];
+        int size = 0;
+        fringe[size++] = position;
+        while (size > 0) {
+            int popped = fringe[--size];
+            for (int parent : new int[] {parent(popped), secondParent(popped)}) {
+                if (parent == NO_PARENT || reached.get(parent)) {
+                    continue;
+                }
+                reached.set(parent);
+                if (size == fringe.length) {
+                    fringe = Arrays.copyOf(fringe, 2 * size);
+                }
+                fringe[size++] = parent;
+            }
+        }
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                        Methods to Write the Commit Graph                     *
+     ********************************************************************************/
+
+    /**
+     * Write the graph of the commits in STORE to F, replacing it atomically. A commit
+     * is left out if any of its ancestors is missing from STORE.
+     * @param f the COMMIT_GRAPH file
+     * @param store the commit store
+     * @return the number of commits in the new graph
+     */
+    static int write(File f, ObjectStore store) {
+        List<ObjectId> ids = new ArrayList<>();
+        for (String hash : store.ids()) {
+            ids.add(ObjectId.fromHex(hash));
+        }
+        int n = ids.size();
+        int[][] parents = new int[n][];
+        long[] timestamps = new long[n];
+        for (int i = 0; i < n; i += 1) {
+            Commit commit = CommitCodec.decode(store.read(ids.get(i).toString()), null);
+            timestamps[i] = commit.getTimestamp().getTime();
+            ObjectId[] commitParents = commit.getParentIds();
+            parents[i] = new int[] {
+                indexOf(ids, commitParents.length > 0 ? commitParents[0] : null),
+                indexOf(ids, commitParents.length > 1 ? commitParents[1] : null)};
+        }
+        return write(f, ids, parents, timestamps);
+    }
+
+    /**
+     * Append the new commit ID to the log of the COMMIT_GRAPH file F, discarding any
+     * bytes after its last whole record first, and merge the log into a new
+     * COMMIT_GRAPH once it has grown enough, unless this process mapped F.
+     * @param f the COMMIT_GRAPH file, which need not exist yet
+     * @param id the hash of the new commit
+     * @param commit the new commit
+     */
+    static void add(File f, ObjectId id, Commit commit) {
+        File log = logFile(f);
+        long[] scanned = scanLog(log);
+        try (RandomAccessFile out = new RandomAccessFile(log, "rw")) {
+            out.setLength(scanned[1]);
+            out.seek(scanned[1]);
+            out.write(logRecord(id, commit));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        long records = scanned[0] + 1;
+        CommitGraph opened = OPENED.get(f);
+        if (records > COMPACT_MIN && records > count(f) / COMPACT_RATIO
+            && (opened == null || !(opened.graph instanceof MappedByteBuffer))) {
+            compact(f);
+        }
+    }
+
+    /**
+     * Write the graph of the commits IDS, in sorted order, given the indices of the
+     * parents and the timestamp of each, to F, replacing it atomically, and delete
+     * its log, which the graph covers. A commit is left out if any of its ancestors
+     * is MISSING.
+     * @return the number of commits in the new graph
+     */
+    private static int write(File f, List<ObjectId> ids, int[][] parents,
+                             long[] timestamps) {
+        int n = ids.size();
+        int[] generations = generations(parents);
+        int[] positions = new int[n];
+        List<ObjectId> kept = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            positions[i] = generations[i] > 0 ? kept.size() : -1;
+            if (generations[i] > 0) {
+                kept.add(ids.get(i));
+            }
+        }
+
+        File tmp = join(f.getParentFile(), f.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(kept.size());
+
+            int[] fanOut = new int[256];
+            for (ObjectId hash : kept) {
+                fanOut[hash.firstByte()] += 1;
+            }
+            int total = 0;
+            for (int b = 0; b < 256; b += 1) {
+                total += fanOut[b];
+                out.writeInt(total);
+            }
+
+            for (ObjectId hash : kept) {
+                hash.writeTo(out);
+            }
+            for (int i = 0; i < n; i += 1) {
+                if (positions[i] < 0) {
+                    continue;
+                }
+                out.writeInt(parents[i][0] == NO_PARENT ? NO_PARENT : positions[parents[i][0]]);
+                out.writeInt(parents[i][1] == NO_PARENT ? NO_PARENT : positions[parents[i][1]]);
+                out.writeInt(generations[i]);
+                out.writeLong(timestamps[i]);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        try {
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(logFile(f).toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        OPENED.remove(f);
+        return kept.size();
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /**
+     * Return the index of HASH in the sorted IDS.
+     * @return the index of the hash, NO_PARENT if HASH is null, MISSING if it is
+     * not in IDS.
+     */
+    private static int indexOf(List<ObjectId> ids, ObjectId hash) {
+        if (hash == null) {
+            return NO_PARENT;
+        }
+        int index = Collections.binarySearch(ids, hash);
+        return index < 0 ? MISSING : index;
+    }
+
+    /**
+     * Return the generation of each commit given the indices of its parents, 0 for
+     * the commits with a missing ancestor. The parents are walked with an explicit
+     * stack, as histories are far deeper than the call stack.
+     */
+    private static int[] generations(int[][] parents) {
+        int n = parents.length;
+        int[] generations = new int[n];
+        boolean[] done = new boolean[n];
+        int[] stack = new int[16];
+
+        for (int start = 0; start < n; start += 1) {
+            int size = 0;
+            stack[size++] = start;
+            while (size > 0) {
+                int top = stack[size - 1];
+                if (done[top]) {
+                    size -= 1;
+                    continue;
+                }
+
+                boolean ready = true;
+                int generation = 1;
+                for (int parent : parents[top]) {
+                    if (parent == NO_PARENT) {
+                        continue;
+                    } else if (parent == MISSING) {
+                        generation = 0;
+                    } else if (!done[parent]) {
+                        ready = false;
+                        if (size == stack.length) {
+                            stack = Arrays.copyOf(stack, 2 * size);
+                        }
+                        stack[size++] = parent;
+                    } else if (generation > 0) {
+                        generation = generations[parent] == 0
+                            ? 0 : Math.max(generation, generations[parent] + 1);
+                    }
+                }
+                if (ready) {
+                    generations[top] = generation;
+                    done[top] = true;
+                    size -= 1;
+                }
+            }
+        }
+        return generations;
+    }
+
+    /** Return the log file of the COMMIT_GRAPH file F. */
+    static File logFile(File f) {
+        return join(f.getParentFile(), f.getName() + LOG_SUFFIX);
+    }
+
+    /** Return the log record of the commit ID. */
+    private static byte[] logRecord(ObjectId id, Commit commit) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            id.writeTo(out);
+            ObjectId[] parents = commit.getParentIds();
+            out.writeByte(parents.length);
+            for (ObjectId parent : parents) {
+                parent.writeTo(out);
+            }
+            out.writeLong(commit.getTimestamp().getTime());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Add the commits of the whole records of the log BYTES to this graph, skipping
+     *  those already in it and those with a parent in neither. */
+    private void readLog(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            while (in.available() > 0) {
+                ObjectId hash = ObjectId.read(in);
+                ObjectId[] parents = new ObjectId[in.readUnsignedByte()];
+                for (int i = 0; i < parents.length; i += 1) {
+                    parents[i] = ObjectId.read(in);
+                }
+                long timestamp = in.readLong();
+                if (parents.length <= 2 && position(hash) < 0) {
+                    addLogCommit(hash, parents, timestamp);
+                }
+            }
+        } catch (EOFException excp) {
+            return;
+        }
+    }
+
+    /** Give the commit HASH of the log the next position, unless one of its PARENTS
+     *  is not in the graph. */
+    private void addLogCommit(ObjectId hash, ObjectId[] parents, long timestamp) {
+        int[] positions = {NO_PARENT, NO_PARENT};
+        int generation = 1;
+        for (int i = 0; i < parents.length; i += 1) {
+            positions[i] = position(parents[i]);
+            if (positions[i] < 0) {
+                return;
+            }
+            generation = Math.max(generation, generation(positions[i]) + 1);
+        }
+
+        int index = logHashes.size();
+        if (index == logGenerations.length) {
+            logParents = Arrays.copyOf(logParents, 4 * index);
+            logGenerations = Arrays.copyOf(logGenerations, 2 * index);
+            logTimestamps = Arrays.copyOf(logTimestamps, 2 * index);
+        }
+        logParents[2 * index] = positions[0];
+        logParents[2 * index + 1] = positions[1];
+        logGenerations[index] = generation;
+        logTimestamps[index] = timestamp;
+        logPositions.put(hash, count + index);
+        logHashes.add(hash);
+    }
+
+    /** Return the number of whole records of the log F and their length, without
+     *  reading its COMMIT_GRAPH. */
+    private static long[] scanLog(File log) {
+        if (!log.exists()) {
+            return new long[] {0, 0};
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(log.toPath());
+            long records = 0;
+            int length = 0;
+            while (length + HASH_LENGTH < bytes.length) {
+                int next = length + HASH_LENGTH + 1
+                    + (bytes[length + HASH_LENGTH] & 0xFF) * HASH_LENGTH + 8;
+                if (next > bytes.length) {
+                    break;
+                }
+                records += 1;
+                length = next;
+            }
+            return new long[] {records, length};
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the number of commits in the COMMIT_GRAPH file F, 0 if it does not
+     *  exist, reading only its header. */
+    private static int count(File f) {
+        if (!f.exists()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(f.toPath()))) {
+            in.skipNBytes(8);
+            return in.readInt();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Merge the log of the COMMIT_GRAPH file F into a new COMMIT_GRAPH, read into
+     *  the heap rather than mapped, as it is about to be replaced. */
+    private static void compact(File f) {
+        CommitGraph graph;
+        try {
+            graph = new CommitGraph(f, false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        /* Merge the sorted hashes of COMMIT_GRAPH with the sorted hashes of the log. */
+        int n = graph.size();
+        List<ObjectId> logged = new ArrayList<>(graph.logHashes);
+        Collections.sort(logged);
+        List<ObjectId> ids = new ArrayList<>(n);
+        int[] newPositions = new int[n];
+        int next = 0;
+        for (int position = 0; position < graph.count; position += 1) {
+            ObjectId hash = graph.hash(position);
+            while (next < logged.size() && logged.get(next).compareTo(hash) < 0) {
+                ids.add(logged.get(next));
+                next += 1;
+            }
+            newPositions[position] = ids.size();
+            ids.add(hash);
+        }
+        ids.addAll(logged.subList(next, logged.size()));
+        for (int position = graph.count; position < n; position += 1) {
+            newPositions[position] = Collections.binarySearch(ids, graph.hash(position));
+        }
+
+        int[][] parents = new int[n][];
+        long[] timestamps = new long[n];
+        for (int position = 0; position < n; position += 1) {
+            int i = newPositions[position];
+            int parent = graph.parent(position);
+            int secondParent = graph.secondParent(position);
+            parents[i] = new int[] {
+                parent == NO_PARENT ? NO_PARENT : newPositions[parent],
+                secondParent == NO_PARENT ? NO_PARENT : newPositions[secondParent]};
+            timestamps[i] = graph.timestamp(position);
+        }
+        write(f, ids, parents, timestamps);
+    }
+}
@@ -12,7 +12,6 @@ class CommitTree {
      *               The File Pointers Relating to the Commit Tree                  *
      ********************************************************************************/
 
-    static final int SHORT_UID_LENGTH = 7;
     static final int FULL_UID_LENGTH = 40;
     static final String MASTER_BRANCH_NAME = "master";
     static final String INIT_COMMIT_MSG = "initial commit";
@@ -36,11 +35,6 @@ class CommitTree {
      */
     static String currentBranch;
 
-    /**
-     * Branch-name Keyed Hashed Commit Nodes
-     */
-    static TreeMap<String, String> branches;
-
 
 
 
@@ -64,25 +58,26 @@ class CommitTree {
 
     /**
      * Submit the commit into the Commit Tree by saving its serialized file
-     * in the .gitlet/commits folder.
+     * in the .gitlet/commits folder and adding it to the commit graph.
      *
      * @param commit commit to be saved.
      */
     static void commit(Commit commit, boolean isRemote) {
-        String hashedCommit = sha1(serialize(commit));
+        commit.saveManifest(isRemote);
+        byte[] encodedCommit = CommitCodec.encode(commit);
+        String hashedCommit = sha1(encodedCommit);
         head = hashedCommit;
-        commit.saveCommit(hashedCommit, isRemote);
+        Commit.saveCommit(hashedCommit, encodedCommit, isRemote);
+        Repository.addToCommitGraph(hashedCommit, commit, isRemote);
 
         String parent = commit.getParent();
         if (parent == null) {
             currentBranch = MASTER_BRANCH_NAME;
-            branches = new TreeMap<>();
         } else {
             currentBranch = readCurrentBranch(isRemote);
-            branches = readBranches(isRemote);
         }
 
-        branches.put(currentBranch, hashedCommit);
+        saveBranch(currentBranch, hashedCommit, isRemote);
         saveFields(isRemote);
     }
 
@@ -95,8 +90,7 @@ class CommitTree {
      * @param branch the name of the branch head will now be pointing
      */
     static void changeHeadToBranchCommit(String branch, boolean isRemote) {
-        branches = readBranches(isRemote);
-        head = branches.get(branch);
+        head = readBranch(branch, isRemote);
         currentBranch = branch;
         saveHead(isRemote);
         saveCurrentBranch(isRemote);
@@ -121,12 +115,10 @@ class CommitTree {
      * @param branchName The name of the new branch
      */
     static void createBranch(String branchName, boolean isRemote) {
-        branches = readBranches(isRemote);
-        if (branches.containsKey(branchName)) {
+        if (readBranch(branchName, isRemote) != null) {
             throw error("A branch with that name already exists.");
         }
-        branches.put(branchName, readHead(isRemote));
-        saveBranches(isRemote);
+        saveBranch(branchName, readHead(isRemote), isRemote);
     }
 
     /**
@@ -142,16 +134,14 @@ class CommitTree {
      * @param branchName the name of the removing branch
      */
     static void removeBranch(String branchName, boolean isRemote) {
-        branches = readBranches(isRemote);
         currentBranch = readCurrentBranch(isRemote);
         if (branchName.equals(currentBranch)) {
             throw error("Cannot remove the current branch.");
-        } else if (!branches.containsKey(branchName)) {
+        } else if (readBranch(branchName, isRemote) == null) {
             throw error("A branch with that name does not exist.");
         }
 
-        branches.remove(branchName);
-        saveBranches(isRemote);
+        saveBranch(branchName, null, isRemote);
     }
 
     /**
@@ -162,10 +152,8 @@ class CommitTree {
      *                 folder
      */
     static void changeBranch(String branchName, String commitId, boolean isRemote) {
-        branches = readBranches(isRemote);
         // currentBranch = readCurrentBranch();
-        branches.put(branchName, commitId);
-        saveBranches(isRemote);
+        saveBranch(branchName, commitId, isRemote);
     }
 
 
@@ -182,8 +170,8 @@ class CommitTree {
 
     /**
      * Return the commit object read from the file name in .gitlet/commits folder.
-     * The file name can also be the shorter version of first 7 characters of the
-     * real file name.
+     * The file name can also be any prefix of the real file name that no other
+     * commit starts with (see resolveCommitId).
      * Return null if no such file is found.
      *
      * @param hashedCommit : The file name of the serialized commit in .gitlet/commits folder.
@@ -195,13 +183,36 @@ class CommitTree {
             return Commit.readCommit(hashedCommit, isRemote);
         }
 
-        for (String commitId : plainFilenamesIn(Repository.COMMITS_FOLDER)) {
-            if (hashedCommit.substring(0, SHORT_UID_LENGTH).equals(
-                    commitId.substring(0, SHORT_UID_LENGTH))) {
-                return Commit.readCommit(commitId, isRemote);
-            }
+        String commitId = resolveCommitId(hashedCommit, isRemote);
+        return commitId == null ? null : Commit.readCommit(commitId, isRemote);
+    }
+
+    /**
+     * Return the full hash of the commit whose hash starts with PREFIX. The commit
+     * store looks the prefix up in its sorted hashes (see ObjectStore.ids), so no
+     * more than the hashes starting with it are ever read.
+     *
+     * Failure: If more than one commit starts with the prefix, print the error
+     * message "More than one commit with that id exists."
+     *
+     * @param prefix the first hexadecimal digits of the hash, in either case
+     * @param isRemote remote or local tree
+     * @return the full hash of the commit, null if no commit starts with the prefix.
+     */
+    static String resolveCommitId(String prefix, boolean isRemote) {
+        String lowered = prefix.toLowerCase();
+        if (lowered.isEmpty() || lowered.length() > FULL_UID_LENGTH
+                || !lowered.chars().allMatch(c -> Character.isDigit(c) && c < 128
+                    || c >= 'a' && c <= 'f')) {
+            return null;
+        }
+        List<String> commitIds = Repository.commitStore(isRemote).ids(lowered);
+        if (commitIds.isEmpty()) {
+            return null;
+        } else if (commitIds.size() > 1) {
+            throw error("More than one commit with that id exists.");
         }
-        return null;
+        return commitIds.get(0);
     }
 
     /**
@@ -239,8 +250,7 @@ class CommitTree {
      * @return true if the requested branch is in the Commit Tree, false otherwise.
      */
     static boolean isABranch(String branch, boolean isRemote) {
-        branches = readBranches(isRemote);
-        return branches.containsKey(branch);
+        return readBranch(branch, isRemote) != null;
     }
 
     /**
@@ -249,8 +259,7 @@ class CommitTree {
      * @return
      */
     static String getBranchCommitId(String branch, boolean isRemote) {
-        branches = readBranches(isRemote);
-        return branches.get(branch);
+        return readBranch(branch, isRemote);
     }
 
     /**
@@ -262,8 +271,7 @@ class CommitTree {
      * @return the last commit of the branch
      */
     static Commit readBranchCommit(String branch, boolean isRemote) {
-        branches = readBranches(isRemote);
-        String hashedCommit = branches.get(branch);
+        String hashedCommit = readBranch(branch, isRemote);
         if (hashedCommit == null) {
             return null;
         }
@@ -275,8 +283,7 @@ class CommitTree {
      * @return a set of strings that represents the names of the branches.
      */
     static Set<String> getBranchNames(boolean isRemote) {
-        branches = readBranches(isRemote);
-        return branches.keySet();
+        return readBranches("", isRemote).keySet();
     }
 
     /**
@@ -300,26 +307,54 @@ class CommitTree {
                                               String outBranchName,
                                               boolean isRemote) {
 
-        branches = readBranches(isRemote);
-        String inBranchHashedCommit = branches.get(inBranchName);
+        ObjectId inBranchHashedCommit = ObjectId.fromHex(readBranch(inBranchName, isRemote));
 
-        String commitHashed = branches.get(outBranchName);
-        Commit commit = retrieveCommit(commitHashed, isRemote);
+        ObjectId commitHashed = ObjectId.fromHex(readBranch(outBranchName, isRemote));
+        CommitGraph graph = Repository.commitGraph(isRemote);
 
         while (true) {
+            int position = graph.position(commitHashed);
+            if (position >= 0) {
+                return isInFirstParentPath(graph, graph.position(inBranchHashedCommit),
+                        position);
+            }
 
-            commitHashed = commit.getParent();
+            commitHashed = readParents(commitHashed, isRemote)[0];
             if (commitHashed == null) {
                 return false;
             } else if (commitHashed.equals(inBranchHashedCommit)) {
                 return true;
             }
-            commit = retrieveCommit(commitHashed, isRemote);
         }
     }
 
     /**
-     * Find the split point commit from two branches. Before calling this method,
+     * Return if a commit is a first-parent ancestor of another, walking the commit
+     * graph. The walk stops at the first commit of a lower generation than the
+     * sought commit, as none of its ancestors can be the sought commit.
+     * @param graph the commit graph holding both commits
+     * @param target the position of the sought commit, -1 if it is not in the graph
+     * @param position the position of the commit whose first parents are walked
+     * @return true if the sought commit is a first-parent ancestor of the other
+     */
+    private static boolean isInFirstParentPath(CommitGraph graph, int target, int position) {
+        if (target < 0) {
+            return false;
+        }
+        int generation = graph.generation(target);
+        position = graph.parent(position);
+        while (position != CommitGraph.NO_PARENT && graph.generation(position) >= generation) {
+            if (position == target) {
+                return true;
+            }
+            position = graph.parent(position);
+        }
+        return false;
+    }
+
+    /**
+     * Find the split point commit from two branches: their best merge base, i.e.
+     * the latest common ancestor (see MergeBase). Before calling this method,
      * check if each branch are on the other branch's path.
      * @param branch1 the name of first branch
      * @param branch2 the name of second branch
@@ -327,50 +362,17 @@ class CommitTree {
      * or cannot find the split point.
      */
     static Commit getSplitPointCommit(String branch1, String branch2, boolean isRemote) {
-        branches = readBranches(isRemote);
-        if (!branches.containsKey(branch1) || !branches.containsKey(branch2)) {
+        String branch1Commit = readBranch(branch1, isRemote);
+        String branch2Commit = readBranch(branch2, isRemote);
+        if (branch1Commit == null || branch2Commit == null) {
             return null;
         }
 
-        Set<String> branch1Ancestors = getAncestors(branches.get(branch1), isRemote);
-
-        return getSplitPointCommit(branches.get(branch2), branch1Ancestors, isRemote);
-    }
-
-
-    // To squeeze out performance a little bit more
-    private static Commit getSplitPointCommit(String branchHash,
-                                              Set<String> otherBranchAncestors,
-                                              boolean isRemote) {
-        Queue<String> fringe = new ArrayDeque<>();
-        Queue<String> expanded = new ArrayDeque<>();
-
-        fringe.add(branchHash);
-        while (!fringe.isEmpty()) {
-            String poppedHashedCommit = fringe.remove();
-            if (expanded.contains(poppedHashedCommit)) {
-                continue;
-            }
-
-            expanded.add(poppedHashedCommit);
-            Commit poppedCommit = retrieveCommit(poppedHashedCommit, isRemote);
-            String parent = poppedCommit.getParent();
-            if (parent != null) {
-                if (otherBranchAncestors.contains(parent)) {
-                    return retrieveCommit(parent, isRemote);
-                }
-                fringe.add(parent);
-            }
-
-            String secondParent = poppedCommit.getSecondParent();
-            if (secondParent != null) {
-                if (otherBranchAncestors.contains(secondParent)) {
-                    return retrieveCommit(secondParent, isRemote);
-                }
-                fringe.add(secondParent);
-            }
+        String splitPoint = MergeBase.best(branch1Commit, branch2Commit, isRemote);
+        if (splitPoint == null) {
+            return null;
         }
-        return null;
+        return retrieveCommit(splitPoint, isRemote);
     }
 
     /**
@@ -379,9 +381,9 @@ class CommitTree {
      * @param isRemote remote or local tree
      * @return a set of family members
      */
-    static Set<String> getFamily(String hashedCommit, boolean isRemote) {
-        Set<String> family = getAncestors(hashedCommit, isRemote);
-        family.add(hashedCommit);
+    static Set<ObjectId> getFamily(String hashedCommit, boolean isRemote) {
+        Set<ObjectId> family = getAncestors(hashedCommit, isRemote);
+        family.add(ObjectId.fromHex(hashedCommit));
         return family;
     }
 
@@ -391,49 +393,49 @@ class CommitTree {
      * @param isRemote remote or local tree
      * @return a queue of ancestors
      */
-    static Set<String> getAncestors(String hashedCommit, boolean isRemote) {
-        Queue<String> fringe = new ArrayDeque<>();
-        Set<String> returnQueue = new HashSet<>();
-        Set<String> expanded = new HashSet<>();
+    static Set<ObjectId> getAncestors(String hashedCommit, boolean isRemote) {
+        Queue<ObjectId> fringe = new ArrayDeque<>();
+        Set<ObjectId> returnQueue = new HashSet<>();
+        Set<ObjectId> expanded = new HashSet<>();
+        CommitGraph graph = Repository.commitGraph(isRemote);
+        BitSet reached = new BitSet(graph.size());
 
-        fringe.add(hashedCommit);
+        fringe.add(ObjectId.fromHex(hashedCommit));
 
         while (!fringe.isEmpty()) {
-            String poppedHashedCommit = fringe.remove();
+            ObjectId poppedHashedCommit = fringe.remove();
             if (expanded.contains(poppedHashedCommit)) {
                 continue;
             }
-            expanded.add(hashedCommit);
-            Commit poppedCommit = retrieveCommit(poppedHashedCommit, isRemote);
-            String parent = poppedCommit.getParent();
-            if (parent != null) {
-                fringe.add(parent);
-                // expanded.add(parent);
-                returnQueue.add(parent);
+            expanded.add(poppedHashedCommit);
+
+            // The ancestors of a commit in the graph are all in the graph too.
+            int position = graph.position(poppedHashedCommit);
+            if (position >= 0) {
+                graph.markAncestors(position, reached);
+                continue;
             }
 
-            String secondParent = poppedCommit.getSecondParent();
-            if (secondParent != null) {
-                fringe.add(secondParent);
-                // expanded.add(secondParent);
-                returnQueue.add(secondParent);
+            for (ObjectId parent : readParents(poppedHashedCommit, isRemote)) {
+                if (parent != null) {
+                    fringe.add(parent);
+                    returnQueue.add(parent);
+                }
             }
         }
 
+        for (int i = reached.nextSetBit(0); i >= 0; i = reached.nextSetBit(i + 1)) {
+            returnQueue.add(graph.hash(i));
+        }
         return returnQueue;
     }
 
     static Set<String> getNonRepeatingFamily(String hashedCommit, boolean isRemote) {
-        List<String> existingCommits;
-        if (isRemote) {
-            existingCommits = plainFilenamesIn(Repository.COMMITS_FOLDER);
-        } else {
-            existingCommits = plainFilenamesIn(Repository.REMOTE_COMMITS_FOLDER);
-        }
+        ObjectStore existingCommits = Repository.commitStore(!isRemote);
 
         Set<String> family = getNonRepeatingAncestors(hashedCommit, isRemote);
-        Commit commit = retrieveCommit(hashedCommit, isRemote);
-        if (commit.getParent() != null && !existingCommits.contains(hashedCommit)) {
+        if (readParents(ObjectId.fromHex(hashedCommit), isRemote)[0] != null
+                && !existingCommits.contains(hashedCommit)) {
             family.add(hashedCommit);
         }
 
@@ -445,12 +447,7 @@ class CommitTree {
         Queue<String> fringe = new ArrayDeque<>();
         Set<String> returnQueue = new HashSet<>();
         Set<String> expanded = new HashSet<>();
-        List<String> existingCommits;
-        if (isRemote) {
-            existingCommits = plainFilenamesIn(Repository.COMMITS_FOLDER);
-        } else {
-            existingCommits = plainFilenamesIn(Repository.REMOTE_COMMITS_FOLDER);
-        }
+        ObjectStore existingCommits = Repository.commitStore(!isRemote);
 
         fringe.add(hashedCommit);
 
@@ -461,9 +458,10 @@ class CommitTree {
                 continue;
             }
 
-            expanded.add(hashedCommit);
-            Commit poppedCommit = retrieveCommit(poppedHashedCommit, isRemote);
-            String parent = poppedCommit.getParent();
+            expanded.add(poppedHashedCommit);
+            String[] parents = toHex(readParents(ObjectId.fromHex(poppedHashedCommit),
+                                                 isRemote));
+            String parent = parents[0];
             if (parent != null && !existingCommits.contains(parent)) {
                 /*
                 if (defaultIsRemote && parent.equals(readContentsAsString(
@@ -476,7 +474,7 @@ class CommitTree {
                 returnQueue.add(parent);
             }
 
-            String secondParent = poppedCommit.getSecondParent();
+            String secondParent = parents[1];
             if (secondParent != null && !existingCommits.contains(secondParent)) {
                 fringe.add(secondParent);
                 // expanded.add(secondParent);
@@ -487,6 +485,41 @@ class CommitTree {
         return returnQueue;
     }
 
+    /**
+     * Return the parents of a commit, read from the commit graph if the commit is in
+     * it, so that the commit itself is not decoded, and from the commit otherwise.
+     * @param hashedCommit the file name of the commit in .gitlet/commits
+     * @param isRemote remote or local tree
+     * @return the first and the second parent, each null if there is none
+     */
+    private static ObjectId[] readParents(ObjectId hashedCommit, boolean isRemote) {
+        CommitGraph graph = Repository.commitGraph(isRemote);
+        int position = graph.position(hashedCommit);
+        if (position < 0) {
+            return Arrays.copyOf(Commit.readCommit(hashedCommit, isRemote).getParentIds(), 2);
+        }
+
+        ObjectId[] parents = new ObjectId[2];
+        int parent = graph.parent(position);
+        int secondParent = graph.secondParent(position);
+        if (parent != CommitGraph.NO_PARENT) {
+            parents[0] = graph.hash(parent);
+        }
+        if (secondParent != CommitGraph.NO_PARENT) {
+            parents[1] = graph.hash(secondParent);
+        }
+        return parents;
+    }
+
+    /** Return the hexadecimal forms of IDS, null for each null id. */
+    private static String[] toHex(ObjectId[] ids) {
+        String[] result = new String[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            result[i] = ids[i] == null ? null : ids[i].toString();
+        }
+        return result;
+    }
+
 
 
 
@@ -514,23 +547,14 @@ class CommitTree {
     }
 
     /**
-     * Save the (branch name, hashed commit) map into .gitlet/BRANCHES file by serializing.
+     * Point a branch at a hashed commit in .gitlet/BRANCHES. The change is only
+     * written once the command is done (see RefSnapshot.flush).
+     *
+     * @param branchName the name of the branch
+     * @param hashedCommit the commit of the branch, null to delete the branch
      */
-    private static void saveBranches(boolean isRemote) {
-        File f;
-        if (isRemote) {
-            f = Repository.REMOTE_BRANCHES;
-        } else {
-            f = Repository.BRANCHES;
-        }
-
-        try {
-            f.createNewFile();
-        } catch (IOException e) {
-            throw new IllegalArgumentException();
-        }
-
-        writeObject(f, branches);
+    private static void saveBranch(String branchName, String hashedCommit, boolean isRemote) {
+        RefSnapshot.put(branchesFile(isRemote), branchName, hashedCommit);
     }
 
     /**
@@ -554,11 +578,10 @@ class CommitTree {
     }
 
     /**
-     * Save head, branches, and currentBranch variables altogether.
+     * Save head and currentBranch variables altogether.
      */
     private static void saveFields(boolean isRemote) {
         saveHead(isRemote);
-        saveBranches(isRemote);
         saveCurrentBranch(isRemote);
     }
 
@@ -585,15 +608,36 @@ class CommitTree {
     }
 
     /**
-     * Read (branch name, hashed commit) map from .gitlet/BRANCHES file.
+     * Read the hashed commit of a branch from .gitlet/BRANCHES file. Only the block
+     * of the table holding the branch is read (see RefTable).
+     *
+     * @param branchName the name of the branch
+     * @return The hashed commit of the branch, null if there is no such branch.
+     */
+    static String readBranch(String branchName, boolean isRemote) {
+        return RefSnapshot.get(branchesFile(isRemote), branchName);
+    }
+
+    /**
+     * Read the branches whose name starts with a prefix from .gitlet/BRANCHES file.
+     *
+     * @param prefix the first characters of the names, empty for every branch
+     * @return The (branch name, hashed commit) pairs starting with the prefix.
+     */
+    static TreeMap<String, String> readBranches(String prefix, boolean isRemote) {
+        return RefSnapshot.scan(branchesFile(isRemote), prefix);
+    }
+
+    /**
+     * Return the BRANCHES file of the local or the remote Commit Tree.
      *
-     * @return The (branch name, hashed commit) pairs that are currently in Commit Tree.
+     * @return .gitlet/BRANCHES, or the BRANCHES file of the remote
      */
-    private static TreeMap<String, String> readBranches(boolean isRemote) {
+    private static File branchesFile(boolean isRemote) {
         if (isRemote) {
-            return readObject(Repository.REMOTE_BRANCHES, TreeMap.class);
+            return Repository.REMOTE_BRANCHES;
         }
-        return readObject(Repository.BRANCHES, TreeMap.class);
+        return Repository.BRANCHES;
     }
 
     /**
@@ -636,7 +680,7 @@ class CommitTree {
      */
     static Commit readCurrentBranchCommit(boolean isRemote) {
 
-        String hashedCommitName = readBranches(isRemote).get(readCurrentBranch(isRemote));
+        String hashedCommitName = readBranch(readCurrentBranch(isRemote), isRemote);
         return Commit.readCommit(hashedCommitName, isRemote);
     }
 }
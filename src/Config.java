@@ -0,0 +1,202 @@
+package src;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.zip.Deflater;
+
+import static src.Utils.*;
+
+/** Represents the settings of a repository, saved in the .gitlet/CONFIG file.
+ *
+ * CONFIG is a java.util.Properties file of "key=value" lines. Only the keys listed
+ * in DEFAULTS may be set, and a key that is not set reads as its default.
+ *
+ *  @author KAUNG SI THU
+ */
+class Config {
+
+    static final String CONFIG_NAME = "CONFIG";
+
+    /** The Deflater level objects are saved with, -1 to 9. 0 turns compression off. */
+    static final String COMPRESSION = "core.compression";
+
+    /** The longest chain of deltas a blob may be saved at the end of. 0 turns deltas off. */
+    static final String DELTA_DEPTH = "core.deltaDepth";
+
+    /** The size from which a file is saved as a chunked blob. 0 turns chunking off. */
+    static final String CHUNK_THRESHOLD = "core.chunkThreshold";
+
+    /** The number of threads working files are hashed on. 0 uses one per processor. */
+    static final String HASH_THREADS = "core.hashThreads";
+
+    /** Whether every command prints the counters of its caches to stderr, 0 or 1. */
+    static final String STATS = "core.stats";
+
+    /** The known keys and their default values. */
+    private static final Map<String, String> DEFAULTS = new TreeMap<>();
+    static {
+        DEFAULTS.put(COMPRESSION, String.valueOf(Deflater.DEFAULT_COMPRESSION));
+        DEFAULTS.put(DELTA_DEPTH, "16");
+        DEFAULTS.put(CHUNK_THRESHOLD, "0");
+        DEFAULTS.put(HASH_THREADS, "0");
+        DEFAULTS.put(STATS, "0");
+    }
+
+    /** The settings read so far by this process, keyed by their CONFIG file. */
+    private static final Map<File, Properties> LOADED = new HashMap<>();
+
+
+
+
+
+
+    /********************************************************************************
+     *                          Methods to Read the Settings                        *
+     ********************************************************************************/
+
+    /**
+     * Return the value of KEY in the local or remote repository.
+     * @param key one of the known keys
+     * @return the value of the key, its default if it is not set
+     */
+    static String get(String key, boolean isRemote) {
+        checkKey(key);
+        return load(isRemote).getProperty(key, DEFAULTS.get(key));
+    }
+
+    /**
+     * Return the Deflater level objects are saved with in the local or remote repository.
+     * @return the compression level, from -1 to 9
+     */
+    static int compressionLevel(boolean isRemote) {
+        return parseInt(COMPRESSION, get(COMPRESSION, isRemote));
+    }
+
+    /**
+     * Return the longest delta chain a blob may be saved at the end of in the local
+     * or remote repository.
+     * @return the maximum delta depth, 0 if blobs are never saved as deltas
+     */
+    static int deltaDepth(boolean isRemote) {
+        return parseInt(DELTA_DEPTH, get(DELTA_DEPTH, isRemote));
+    }
+
+    /**
+     * Return the size from which a file is saved as a chunked blob in the local or
+     * remote repository.
+     * @return the chunking threshold in bytes, 0 if files are never chunked
+     */
+    static long chunkThreshold(boolean isRemote) {
+        return parseInt(CHUNK_THRESHOLD, get(CHUNK_THRESHOLD, isRemote));
+    }
+
+    /**
+     * Return the number of threads working files are scanned and hashed on in the
+     * local or remote repository (see WorkingTree).
+     * @return the number of threads, one per processor unless it is set
+     */
+    static int hashThreads(boolean isRemote) {
+        int threads = parseInt(HASH_THREADS, get(HASH_THREADS, isRemote));
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Return if the commands of the local or remote repository print the counters of
+     * their caches once they are done (see Main).
+     * @return true if the counters are printed, false otherwise
+     */
+    static boolean stats(boolean isRemote) {
+        return parseInt(STATS, get(STATS, isRemote)) == 1;
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                         Methods to Change the Settings                       *
+     ********************************************************************************/
+
+    /**
+     * Set KEY to VALUE in the local repository and save CONFIG.
+     * @param key one of the known keys
+     * @param value the new value of the key
+     */
+    static void set(String key, String value) {
+        parseInt(key, value);
+
+        Properties settings = load(false);
+        settings.setProperty(key, value);
+        try (OutputStream out = new FileOutputStream(configFile(false))) {
+            settings.store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    private static File configFile(boolean isRemote) {
+        if (isRemote) {
+            return join(Repository.REMOTE_GITLET_DIR, CONFIG_NAME);
+        }
+        return join(Repository.GITLET_DIR, CONFIG_NAME);
+    }
+
+    private static Properties load(boolean isRemote) {
+        File f = configFile(isRemote);
+        Properties settings = LOADED.get(f);
+        if (settings != null) {
+            return settings;
+        }
+
+        settings = new Properties();
+        if (f.exists()) {
+            try (InputStream in = new FileInputStream(f)) {
+                settings.load(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        LOADED.put(f, settings);
+        return settings;
+    }
+
+    private static void checkKey(String key) {
+        if (!DEFAULTS.containsKey(key)) {
+            throw error("No such config key.");
+        }
+    }
+
+    /**
+     * Return VALUE of the integer KEY, checking that it is in the range of KEY.
+     */
+    private static int parseInt(String key, String value) {
+        checkKey(key);
+        int min = key.equals(COMPRESSION) ? Deflater.DEFAULT_COMPRESSION : 0;
+        int max = key.equals(COMPRESSION) ? Deflater.BEST_COMPRESSION
+                : key.equals(STATS) ? 1 : Integer.MAX_VALUE;
+        try {
+            int result = Integer.parseInt(value.trim());
+            if (result >= min && result <= max) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            // Falls through to the error below.
+        }
+        throw error("Invalid value for %s.", key);
+    }
+}
@@ -0,0 +1,267 @@
+package src;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import static src.Utils.*;
+
+/** Computes and applies the delta of a blob against a base blob.
+ *
+ * A delta rebuilds a target from a base with two kinds of instructions:
+ *
+ *    COPY   varint offset, varint length -- copy LENGTH bytes of the base at OFFSET.
+ *    INSERT varint length, bytes         -- append the LENGTH bytes that follow.
+ *
+ * preceded by the varint length of the target. Matches are found with a rolling
+ * hash: the base is cut into BLOCK-byte blocks whose hashes are indexed, then a
+ * BLOCK-byte window is rolled over the target one byte at a time. Every window that
+ * hits the index and really equals its block is grown in both directions as far as
+ * target and base agree, and becomes one COPY.
+ *
+ * Rebuilt contents are kept in an LRU cache, so the base of a chain of deltas (and
+ * every blob on the way) is read and rebuilt only once while it stays hot.
+ *
+ *  @author KAUNG SI THU
+ */
+class Delta {
+
+    /** The instruction tags. */
+    private static final int INSERT = 0;
+    private static final int COPY = 1;
+
+    /** The length of the indexed base blocks and of the rolling window. */
+    static final int BLOCK = 16;
+
+    /** The multiplier of the polynomial rolling hash. */
+    private static final int PRIME = 0x01000193;
+
+    /** PRIME to the power BLOCK - 1, the weight of the byte leaving the window. */
+    private static final int TOP;
+    static {
+        int top = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            top *= PRIME;
+        }
+        TOP = top;
+    }
+
+    /** The total bytes of rebuilt content the cache may hold. */
+    static final long CACHE_SIZE = 64L * 1024 * 1024;
+
+    /** Rebuilt contents by blob hash, least recently used first. */
+    private static final LinkedHashMap<String, byte[]> CACHE =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The total length of the contents in CACHE. */
+    private static long cachedBytes = 0;
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Methods to Compute a Delta                        *
+     ********************************************************************************/
+
+    /**
+     * Return the instructions rebuilding TARGET from BASE.
+     * @param base the content of the base blob
+     * @param target the content of the new blob
+     * @return the encoded instructions
+     */
+    static byte[] compute(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeVarint(out, target.length);
+            int[] index = indexBlocks(base);
+            int mask = index.length - 1;
+
+            int pending = 0;
+            int i = 0;
+            int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (i + BLOCK <= target.length) {
+                int candidate = index[mix(hash) & mask] - 1;
+                if (candidate >= 0 && matches(base, candidate, target, i)) {
+                    int start = i;
+                    int offset = candidate;
+                    while (start > pending && offset > 0
+                           && target[start - 1] == base[offset - 1]) {
+                        start -= 1;
+                        offset -= 1;
+                    }
+                    int end = i + BLOCK;
+                    int baseEnd = candidate + BLOCK;
+                    while (end < target.length && baseEnd < base.length
+                           && target[end] == base[baseEnd]) {
+                        end += 1;
+                        baseEnd += 1;
+                    }
+
+                    writeInsert(out, target, pending, start);
+                    out.write(COPY);
+                    writeVarint(out, offset);
+                    writeVarint(out, end - start);
+
+                    i = end;
+                    pending = end;
+                    if (i + BLOCK <= target.length) {
+                        hash = hash(target, i);
+                    }
+                    continue;
+                }
+
+                if (i + BLOCK < target.length) {
+                    hash = roll(hash, target[i], target[i + BLOCK]);
+                }
+                i += 1;
+            }
+            writeInsert(out, target, pending, target.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Methods to Apply a Delta                          *
+     ********************************************************************************/
+
+    /**
+     * Rebuild the target from BASE and the instructions read from IN.
+     * @param base the content of the base blob
+     * @param in the instructions written by compute
+     * @return the content of the target blob
+     */
+    static byte[] apply(byte[] base, InputStream in) throws IOException {
+        long length = readVarint(in);
+        if (length > Integer.MAX_VALUE) {
+            throw error("Corrupted delta.");
+        }
+
+        byte[] target = new byte[(int) length];
+        int position = 0;
+        int op;
+        while ((op = in.read()) >= 0) {
+            int n;
+            if (op == COPY) {
+                long offset = readVarint(in);
+                n = (int) readVarint(in);
+                if (offset + n > base.length || position + n > target.length) {
+                    throw error("Corrupted delta.");
+                }
+                System.arraycopy(base, (int) offset, target, position, n);
+            } else if (op == INSERT) {
+                n = (int) readVarint(in);
+                if (position + n > target.length
+                    || in.readNBytes(target, position, n) != n) {
+                    throw new EOFException("Truncated delta.");
+                }
+            } else {
+                throw error("Corrupted delta.");
+            }
+            position += n;
+        }
+
+        if (position != target.length) {
+            throw new EOFException("Truncated delta.");
+        }
+        return target;
+    }
+
+    /**
+     * Return the cached content of the blob with the given hash, null if it is
+     * not cached.
+     */
+    static synchronized byte[] cached(String hash) {
+        return CACHE.get(hash);
+    }
+
+    /**
+     * Keep CONTENT of the blob with the given hash in the cache, evicting the least
+     * recently used contents beyond CACHE_SIZE.
+     */
+    static synchronized void cache(String hash, byte[] content) {
+        if (content.length > CACHE_SIZE / 4 || CACHE.containsKey(hash)) {
+            return;
+        }
+
+        CACHE.put(hash, content);
+        cachedBytes += content.length;
+        Iterator<byte[]> eldest = CACHE.values().iterator();
+        while (cachedBytes > CACHE_SIZE) {
+            cachedBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /**
+     * Return an open-addressed table from the hash of each BLOCK-byte block of BASE
+     * to 1 + its offset, 0 marking an empty slot. The first block with a hash wins.
+     */
+    private static int[] indexBlocks(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(blocks, 1) * 2 - 1) * 2;
+        int[] index = new int[size];
+        for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+            int slot = mix(hash(base, offset)) & (size - 1);
+            if (index[slot] == 0) {
+                index[slot] = offset + 1;
+            }
+        }
+        return index;
+    }
+
+    /** Return the rolling hash of the BLOCK bytes of DATA at OFFSET. */
+    private static int hash(byte[] data, int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK; i += 1) {
+            hash = hash * PRIME + (data[i] & 0xff);
+        }
+        return hash;
+    }
+
+    /** Return the hash of the window moved one byte on, dropping OUT and taking IN. */
+    private static int roll(int hash, byte out, byte in) {
+        return (hash - (out & 0xff) * TOP) * PRIME + (in & 0xff);
+    }
+
+    /** Spread the high bits of HASH into the low bits before it is masked into a slot. */
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(byte[] base, int offset, byte[] target, int start) {
+        if (offset + BLOCK > base.length) {
+            return false;
+        }
+        return Arrays.equals(base, offset, offset + BLOCK, target, start, start + BLOCK);
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target,
+                                    int from, int to) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        out.write(INSERT);
+        writeVarint(out, to - from);
+        out.write(target, from, to - from);
+    }
+}
@@ -0,0 +1,239 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static src.Utils.*;
+
+/** The objects of a .gitlet object folder (.gitlet/blobs or .gitlet/commits).
+ *
+ * New objects are written loose, one file per object, under a sub-folder named
+ * after the first two digits of their hash, e.g. commits/3f/a9c0..., so that no
+ * single folder grows to hundreds of thousands of entries. The repack command moves
+ * them into the pack of the folder (see PackFile). Reads look at the loose file
+ * first and then at the pack; both are memory-mapped.
+ *
+ *  @author KAUNG SI THU
+ */
+class FileObjectStore implements ObjectStore {
+
+    /** The number of hash digits naming the fan-out folder of a loose object. */
+    static final int FAN_OUT_LENGTH = 2;
+
+
+
+    /* Instance Variables */
+    /** The object folder holding the objects of this store. */
+    private final File folder;
+
+    /**
+     * A store of the objects in FOLDER.
+     * @param folder the object folder, e.g. .gitlet/blobs
+     */
+    FileObjectStore(File folder) {
+        this.folder = folder;
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                          Methods to Read the Objects                         *
+     ********************************************************************************/
+
+    @Override
+    public boolean contains(String hash) {
+        return looseObject(folder, hash).exists() || PackFile.contains(folder, hash);
+    }
+
+    @Override
+    public InputStream openSaved(String hash) {
+        File f = looseObject(folder, hash);
+        try {
+            if (f.exists()) {
+                return new BufferedInputStream(new FileInputStream(f), Blob.BUFFER_SIZE);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        InputStream packed = PackFile.openStream(folder, hash);
+        if (packed == null) {
+            throw ObjectStore.missingObject(hash);
+        }
+        return packed;
+    }
+
+    @Override
+    public ByteBuffer readSaved(String hash) {
+        File f = looseObject(folder, hash);
+        if (!f.exists()) {
+            return PackFile.read(folder, hash);
+        }
+
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * {@inheritDoc} With a prefix of at least FAN_OUT_LENGTH digits, only the one
+     * fan-out folder of the prefix is listed, and the pack is binary searched for
+     * the prefix either way.
+     */
+    @Override
+    public List<String> ids(String prefix) {
+        TreeSet<String> ids = new TreeSet<>();
+        if (prefix.length() >= FAN_OUT_LENGTH) {
+            String fanOut = prefix.substring(0, FAN_OUT_LENGTH);
+            List<String> names = plainFilenamesIn(join(folder, fanOut));
+            if (names != null) {
+                for (String name : names) {
+                    ids.add(fanOut + name);
+                }
+            }
+        } else {
+            ids.addAll(looseObjectIds(folder));
+        }
+        ids.removeIf(id -> !id.startsWith(prefix));
+        ids.addAll(PackFile.ids(folder, prefix));
+        return new ArrayList<>(ids);
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                          Methods to Write the Objects                        *
+     ********************************************************************************/
+
+    /**
+     * {@inheritDoc} The object is written to a temporary file next to the object
+     * folder and moved to its loose file when it is saved, so a reader never sees
+     * a half-written object.
+     */
+    @Override
+    public Writer newObject() {
+        try {
+            File tmp = File.createTempFile("object", ".tmp", folder.getParentFile());
+            return new FileWriter(tmp);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** A new object written to a temporary file. */
+    private class FileWriter implements Writer {
+
+        /** The temporary file and the stream writing it. */
+        private final File tmp;
+        private final OutputStream out;
+
+        FileWriter(File tmp) throws IOException {
+            this.tmp = tmp;
+            this.out = new BufferedOutputStream(new FileOutputStream(tmp), Blob.BUFFER_SIZE);
+        }
+
+        @Override
+        public OutputStream stream() {
+            return out;
+        }
+
+        @Override
+        public void save(String hash) {
+            try {
+                out.close();
+                if (contains(hash)) {
+                    return;
+                }
+                Files.move(tmp.toPath(), newLooseObject(folder, hash).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+                Files.deleteIfExists(tmp.toPath());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                         Methods on the Loose Object Files                    *
+     ********************************************************************************/
+
+    /**
+     * Return the file of the loose object, in the fan-out folder of its hash.
+     * @param folder the object folder, e.g. .gitlet/blobs
+     * @param hash the hash of the object
+     * @return the file of the loose object, which may not exist
+     */
+    static File looseObject(File folder, String hash) {
+        return join(folder, hash.substring(0, FAN_OUT_LENGTH),
+                hash.substring(FAN_OUT_LENGTH));
+    }
+
+    /**
+     * Return the file of a new loose object, creating its fan-out folder if needed.
+     * @param folder the object folder, e.g. .gitlet/blobs
+     * @param hash the hash of the object
+     * @return the file the loose object is to be written to
+     */
+    static File newLooseObject(File folder, String hash) {
+        File f = looseObject(folder, hash);
+        f.getParentFile().mkdir();
+        return f;
+    }
+
+    /**
+     * Return the hashes of the loose objects in the object folder, in lexicographic
+     * order.
+     * @param folder the object folder, e.g. .gitlet/commits
+     * @return the sorted hashes of the loose objects in the folder
+     */
+    static List<String> looseObjectIds(File folder) {
+        List<String> ids = new ArrayList<>();
+        File[] fanOuts = folder.listFiles(f -> f.isDirectory()
+                && f.getName().length() == FAN_OUT_LENGTH);
+        if (fanOuts == null) {
+            return ids;
+        }
+
+        Arrays.sort(fanOuts);
+        for (File fanOut : fanOuts) {
+            for (String name : plainFilenamesIn(fanOut)) {
+                ids.add(fanOut.getName() + name);
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,155 @@
+package src;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Formatter;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+/** A microbenchmark of the hashing in Utils, whose main program may be invoked as
+ *      java src.HashBench [ROUNDS]
+ *  It times Utils.sha1, Utils.hexHash and Utils.sha1File against the way they
+ *  used to work, which is kept here as the baseline: a new MessageDigest per
+ *  call, Strings through getBytes, and a Formatter call per hexadecimal byte.
+ *  Each case is run ROUNDS times (5 by default) after a warm-up round, and the
+ *  best round of each side is reported, in operations or megabytes per second.
+ *
+ *  The cases are the ones that run on every add, status and commit: the short
+ *  names hashed while walking a manifest (see Manifest), 4 KiB contents, the
+ *  hexadecimal form of a raw hash, and a 32 MiB file.
+ *
+ *  @author KAUNG SI THU
+ */
+public class HashBench {
+
+    /** The number of hashes per round of the short and the 4 KiB cases. */
+    private static final int COUNT = 200_000;
+
+    /** The size of the hashed file, in bytes. */
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+
+    /** The checksums of the runs, kept so that no hash is optimized away. */
+    private static volatile int checksum;
+
+    /** Run the benchmark, printing a line per case. */
+    public static void main(String... args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Random random = new Random(61);
+
+        String[] names = new String[COUNT];
+        for (int i = 0; i < COUNT; i += 1) {
+            names[i] = "src/main/java/module" + (i % 97) + "/File" + i + ".java";
+        }
+        byte[][] contents = new byte[64][4096];
+        for (byte[] content : contents) {
+            random.nextBytes(content);
+        }
+        byte[] raw = new byte[Utils.UID_RAW_LENGTH];
+        random.nextBytes(raw);
+
+        File file = File.createTempFile("hashbench", ".bin");
+        file.deleteOnExit();
+        byte[] fileContent = new byte[FILE_SIZE];
+        random.nextBytes(fileContent);
+        Files.write(file.toPath(), fileContent);
+
+        run("sha1, short names", rounds, COUNT, "hashes/s",
+            () -> sink(COUNT, i -> oldSha1(names[i])),
+            () -> sink(COUNT, i -> Utils.sha1(names[i])));
+        run("sha1, 4 KiB contents", rounds, COUNT, "hashes/s",
+            () -> sink(COUNT, i -> oldSha1(contents[i & 63])),
+            () -> sink(COUNT, i -> Utils.sha1(contents[i & 63])));
+        run("hexHash", rounds, COUNT, "hashes/s",
+            () -> sink(COUNT, i -> oldHexHash(raw)),
+            () -> sink(COUNT, i -> Utils.hexHash(raw)));
+        run("sha1File, 32 MiB", rounds, FILE_SIZE / (1024 * 1024), "MiB/s",
+            () -> oldSha1File(file).length(),
+            () -> Utils.sha1File(file).length());
+    }
+
+    /** Time BASELINE and CURRENT, each doing OPERATIONS operations per round, and
+     *  print their best rates in UNIT per second and the speed-up. */
+    private static void run(String name, int rounds, int operations, String unit,
+                            IntSupplier baseline, IntSupplier current) {
+        double before = best(rounds, operations, baseline);
+        double after = best(rounds, operations, current);
+        System.out.printf("%-22s %14.0f -> %14.0f %-9s (x%.2f)%n",
+                          name, before, after, unit, after / before);
+    }
+
+    /** Return the best rate of ROUNDS timed runs of TASK, after a warm-up run. */
+    private static double best(int rounds, int operations, IntSupplier task) {
+        checksum += task.getAsInt();
+        double best = 0;
+        for (int round = 0; round < rounds; round += 1) {
+            long start = System.nanoTime();
+            checksum += task.getAsInt();
+            long elapsed = System.nanoTime() - start;
+            best = Math.max(best, operations * 1e9 / elapsed);
+        }
+        return best;
+    }
+
+    /** Return a checksum of the hashes HASH makes of the indices below COUNT. */
+    private static int sink(int count, IntFunction<String> hash) {
+        int checksum = 0;
+        for (int i = 0; i < count; i += 1) {
+            checksum += hash.apply(i).charAt(i % Utils.UID_LENGTH);
+        }
+        return checksum;
+    }
+
+
+
+
+    /********************************************************************************
+     *                     The Baseline: Hashing as It Used to Be                   *
+     ********************************************************************************/
+
+    private static String oldSha1(Object val) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            }
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    private static String oldHexHash(byte[] rawHash) {
+        StringBuilder result = new StringBuilder(Utils.UID_LENGTH);
+        for (byte b : rawHash) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    private static String oldSha1File(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[Blob.BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+            return oldHexHash(md.digest());
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
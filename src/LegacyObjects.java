@@ -0,0 +1,279 @@
+package src;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static src.Utils.*;
+
+/** Re-encodes the objects of repositories made before commits and blobs had their
+ *  own saved formats (see CommitCodec and ObjectEncoding).
+ *
+ * Those repositories saved every commit and blob with java.io serialization:
+ *    src.Commit -- message, timestamp (a Date), parents (a List of hashes, in
+ *                  which an init commit may hold a null) and
+ *                  fileBlobs (a TreeMap of file names and blob hashes), saved
+ *                  under the SHA-1 of its serialized bytes.
+ *    src.Blob   -- content (a String) and hashCode, saved under the SHA-1 of the
+ *                  UTF-8 bytes of its content.
+ * Serialized objects start with the two bytes 0xACED, which no saved format of
+ * ObjectEncoding starts with, so they are told apart by their first bytes. They are
+ * read through LegacyInputStream into look-alike classes, as the Commit and Blob of
+ * today are different classes.
+ *
+ * A blob keeps its id, as its content is the same, and is re-encoded in place. A
+ * commit gets a new id, since its id is the hash of its saved form, and so do its
+ * children, whose saved forms hold the ids of their parents; the commits are thus
+ * re-encoded parents first, and HEAD and the branches are moved to the new ids
+ * before the old commits are deleted. Every step can be done again with the same
+ * result, so an upgrade interrupted midway is finished by the next command.
+ *
+ *  @author KAUNG SI THU
+ */
+class LegacyObjects {
+
+    /** The first two bytes of a java.io serialization stream. */
+    private static final int STREAM_MAGIC_0 = 0xAC;
+    private static final int STREAM_MAGIC_1 = 0xED;
+
+    /** A Commit as it was serialized. */
+    private static final class LegacyCommit implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private TreeMap<String, String> fileBlobs;
+        private String message;
+        private List<String> parents;
+        private Date timestamp;
+    }
+
+    /** A Blob as it was serialized. */
+    private static final class LegacyBlob implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String content;
+        private String hashCode;
+    }
+
+    /** Reads serialized objects of the old Commit and Blob classes as LegacyCommit
+     *  and LegacyBlob, whose fields are the same. Their own descriptors stand in for
+     *  the saved ones, so the serialVersionUIDs above never have to match. */
+    private static final class LegacyInputStream extends ObjectInputStream {
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+            ObjectStreamClass descriptor = super.readClassDescriptor();
+            switch (descriptor.getName()) {
+                case "src.Commit" -> {
+                    return ObjectStreamClass.lookup(LegacyCommit.class);
+                }
+                case "src.Blob" -> {
+                    return ObjectStreamClass.lookup(LegacyBlob.class);
+                }
+                default -> {
+                    return descriptor;
+                }
+            }
+        }
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                        Methods to Re-encode the Objects                      *
+     ********************************************************************************/
+
+    /**
+     * Re-encode the serialized blobs and commits of the .gitlet folder GITLETDIR,
+     * whose loose objects must already be in their fan-out folders, and move HEAD
+     * and the branches, which must already be a RefTable, to the new commit ids.
+     * Does nothing if there are no serialized objects.
+     * @param gitletDir the .gitlet folder of the local or a remote repository, whose
+     *                  object stores are Repository.commitStore(isRemote) and
+     *                  Repository.blobStore(isRemote)
+     */
+    static void reencode(File gitletDir, boolean isRemote) {
+        File blobsFolder = join(gitletDir, Repository.BLOBS_FOLDER_NAME);
+        File commitsFolder = join(gitletDir, Repository.COMMITS_FOLDER_NAME);
+        checkNotPacked(blobsFolder);
+        checkNotPacked(commitsFolder);
+
+        for (String hash : FileObjectStore.looseObjectIds(blobsFolder)) {
+            File f = FileObjectStore.looseObject(blobsFolder, hash);
+            if (isSerialized(f)) {
+                reencodeBlob(f, hash, isRemote);
+            }
+        }
+
+        Map<String, LegacyCommit> legacyCommits = new HashMap<>();
+        for (String hash : FileObjectStore.looseObjectIds(commitsFolder)) {
+            File f = FileObjectStore.looseObject(commitsFolder, hash);
+            if (isSerialized(f)) {
+                legacyCommits.put(hash, (LegacyCommit) readSerialized(f));
+            }
+        }
+        if (legacyCommits.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> newIds = reencodeCommits(legacyCommits, isRemote);
+        moveRefs(gitletDir, newIds);
+        for (String hash : legacyCommits.keySet()) {
+            FileObjectStore.looseObject(commitsFolder, hash).delete();
+        }
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /** Return if the object file F is a serialized object. */
+    private static boolean isSerialized(File f) {
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            return isSerialized(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return if the saved object read from IN is a serialized object. */
+    private static boolean isSerialized(InputStream in) throws IOException {
+        return in.read() == STREAM_MAGIC_0 && in.read() == STREAM_MAGIC_1;
+    }
+
+    /** Stop before anything is changed if a serialized object of FOLDER is packed,
+     *  as packs are never rewritten in place. */
+    private static void checkNotPacked(File folder) {
+        for (String hash : PackFile.ids(folder)) {
+            if (FileObjectStore.looseObject(folder, hash).exists()) {
+                continue;
+            }
+            try (InputStream in = PackFile.openStream(folder, hash)) {
+                if (isSerialized(in)) {
+                    throw error("Cannot upgrade a repository whose packs hold objects "
+                            + "of the old format.");
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Return the object serialized in the file F. */
+    private static Object readSerialized(File f) {
+        try (ObjectInputStream in = new LegacyInputStream(
+                new ByteArrayInputStream(Files.readAllBytes(f.toPath())))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException excp) {
+            throw error("Cannot read the old object %s.", f.getName());
+        }
+    }
+
+    /** Replace the serialized blob HASH in the file F by its content, encoded as
+     *  configured for the repository. */
+    private static void reencodeBlob(File f, String hash, boolean isRemote) {
+        LegacyBlob blob = (LegacyBlob) readSerialized(f);
+        byte[] content = blob.content.getBytes(StandardCharsets.UTF_8);
+        if (!sha1(content).equals(hash)) {
+            throw error("Cannot read the old object %s.", hash);
+        }
+
+        File tmp = join(f.getParentFile(), f.getName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+            ObjectEncoding.write(new ByteArrayInputStream(content), out, null,
+                    Config.compressionLevel(isRemote));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Save the commits LEGACYCOMMITS, keyed by their old ids, in the saved format
+     *  of today, parents first, and return the new id of each old id. */
+    private static Map<String, String> reencodeCommits(Map<String, LegacyCommit> legacyCommits,
+                                                       boolean isRemote) {
+        Map<String, String> newIds = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>(new TreeSet<>(legacyCommits.keySet()));
+        while (!stack.isEmpty()) {
+            String hash = stack.peek();
+            if (newIds.containsKey(hash)) {
+                stack.pop();
+                continue;
+            }
+            LegacyCommit legacy = legacyCommits.get(hash);
+            boolean parentsDone = true;
+            for (String parent : legacy.parents) {
+                if (parent != null && legacyCommits.containsKey(parent)
+                        && !newIds.containsKey(parent)) {
+                    stack.push(parent);
+                    parentsDone = false;
+                }
+            }
+            if (!parentsDone) {
+                continue;
+            }
+
+            stack.pop();
+            List<ObjectId> parents = new ArrayList<>();
+            for (String parent : legacy.parents) {
+                if (parent != null) {
+                    parents.add(ObjectId.fromHex(newIds.getOrDefault(parent, parent)));
+                }
+            }
+            Commit commit = new Commit(legacy.message, legacy.timestamp.getTime(),
+                    parents.toArray(new ObjectId[0]));
+            for (Map.Entry<String, String> file : legacy.fileBlobs.entrySet()) {
+                commit.addToFileBlob(file.getKey(), file.getValue());
+            }
+            commit.saveManifest(isRemote);
+            byte[] encodedCommit = CommitCodec.encode(commit);
+            String newId = sha1(encodedCommit);
+            Commit.saveCommit(newId, encodedCommit, isRemote);
+            newIds.put(hash, newId);
+        }
+        return newIds;
+    }
+
+    /** Point HEAD and the branches of GITLETDIR that point to an old id of NEWIDS at
+     *  its new id. */
+    private static void moveRefs(File gitletDir, Map<String, String> newIds) {
+        File head = join(gitletDir, Repository.HEAD_NAME);
+        String headId = readContentsAsString(head).trim();
+        if (newIds.containsKey(headId)) {
+            writeContents(head, newIds.get(headId));
+        }
+
+        File branches = join(gitletDir, Repository.BRANCHES_NAME);
+        TreeMap<String, String> refs = RefTable.open(branches).scan("");
+        refs.replaceAll((name, hash) -> newIds.getOrDefault(hash, hash));
+        RefTable.write(branches, refs);
+        try {
+            Files.deleteIfExists(RefTable.logFile(branches).toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
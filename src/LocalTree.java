@@ -102,8 +102,8 @@ class LocalTree {
 
     /**
      * Return the commit object read from the file name in .gitlet/commits folder.
-     * The file name can also be the shorter version of first 7 characters of the
-     * real file name.
+     * The file name can also be any prefix of the real file name that no other
+     * commit starts with.
      * Return null if no such file is found.
      *
      * @param hashedCommit : The file name of the serialized commit in .gitlet/commits folder.
@@ -114,6 +114,15 @@ class LocalTree {
         return CommitTree.retrieveCommit(hashedCommit, IS_REMOTE);
     }
 
+    /**
+     * Return the full hash of the commit whose hash starts with PREFIX.
+     * @param prefix the first hexadecimal digits of the hash
+     * @return the full hash of the commit, null if no commit starts with the prefix.
+     */
+    static String resolveCommitId(String prefix) {
+        return CommitTree.resolveCommitId(prefix, IS_REMOTE);
+    }
+
     /**
      * Return if a specific version of the file is in the current working commit.
      *
@@ -210,7 +219,7 @@ class LocalTree {
         return CommitTree.getNonRepeatingFamily(hashedCommit, IS_REMOTE);
     }
 
-    static Set<String> getAncestors(String hashedCommit) {
+    static Set<ObjectId> getAncestors(String hashedCommit) {
         return CommitTree.getAncestors(hashedCommit, IS_REMOTE);
     }
 
@@ -275,15 +284,6 @@ class LocalTree {
         return CommitTree.readHeadCommit(IS_REMOTE);
     }
 
-    /**
-     * Read (branch name, hashed commit) map from .gitlet/BRANCHES file.
-     *
-     * @return The (branch name, hashed commit) pairs that are currently in Commit Tree.
-     */
-    private static TreeMap<String, String> readBranches() {
-        return readObject(Repository.BRANCHES, TreeMap.class);
-    }
-
     /**
      * Return Commit Object that Current Branch was pointing to.
      * Return null if the serialized file is not found in .gitlet/commits.
@@ -292,7 +292,7 @@ class LocalTree {
      */
     static Commit readCurrentBranchCommit() {
 
-        String hashedCommitName = readBranches().get(readCurrentBranch());
+        String hashedCommitName = CommitTree.readBranch(readCurrentBranch(), IS_REMOTE);
         return Commit.readCommit(hashedCommitName, IS_REMOTE);
     }
 }
@@ -1,5 +1,7 @@
 package src;
 
+import java.util.Arrays;
+
 import static src.Utils.error;
 
 
@@ -25,8 +27,14 @@ public class Main {
                 }
                 case "add" -> {
                     Repository.checkGitletRepo();
-                    checkSize(args.length, 2);
-                    CommandAssembler.add(args[1]);
+                    if (args.length < 2) {
+                        throw error("Incorrect operands.");
+                    }
+                    if (args.length == 2 && args[1].equals("-A")) {
+                        CommandAssembler.addAll();
+                    } else {
+                        CommandAssembler.add(Arrays.copyOfRange(args, 1, args.length));
+                    }
                 }
                 case "checkout" -> {
                     Repository.checkGitletRepo();
@@ -91,6 +99,16 @@ public class Main {
                     checkSize(args.length, 2);
                     CommandAssembler.merge(args[1]);
                 }
+                case "repack" -> {
+                    Repository.checkGitletRepo();
+                    checkSize(args.length, 1);
+                    CommandAssembler.repack();
+                }
+                case "config" -> {
+                    Repository.checkGitletRepo();
+                    checkSize(args.length, 2, 3);
+                    CommandAssembler.config(args[1], args.length == 3 ? args[2] : null);
+                }
                 case "add-remote" -> {
                     Repository.checkGitletRepo();
                     checkSize(args.length, 3);
@@ -118,12 +136,23 @@ public class Main {
                 }
                 default -> throw error("No command with that name exists.");
             }
+            RefSnapshot.flush();
+            printStats();
         } catch (Exception e) {
+            RefSnapshot.flush();
             System.out.print(e.getMessage() + '\n');
             System.exit(0);
         }
     }
 
+    /** Print the counters of the caches to stderr if the repository asks for them
+     *  (see Config.stats). */
+    private static void printStats() {
+        if (Repository.GITLET_DIR.exists() && Config.stats(false)) {
+            System.err.println(CommitCache.stats());
+        }
+    }
+
     private static void checkSize(int argSize, int... vals) {
         for (int size : vals) {
             if (argSize == size) {
@@ -0,0 +1,738 @@
+package src;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static src.Utils.*;
+
+/** The files of a commit: a persistent tree of directories, mapping file paths such
+ *  as "docs/notes.txt" to hashed blob contents.
+ *
+ * Each directory is a hash array mapped trie of its entries, a file or a
+ * subdirectory per name. An entry goes down the trie by the hexadecimal digits of
+ * the SHA-1 of its name, one digit per level, so its place never depends on the
+ * other entries. A set of at most LEAF_SIZE entries is a leaf holding them by name;
+ * a larger set is an inner node with one child per digit that has entries. The
+ * shape is thus a function of the entries alone: two directories with the same
+ * files have the same nodes, and the hash of the root node of a directory is the
+ * hash of the whole tree below it, computed bottom-up.
+ *
+ * Every node but the root of the top directory is an object of its own in the blob
+ * store, named by the SHA-1 of its saved form:
+ *
+ *    LEAF   byte 0, varint number of entries, followed by, in name order,
+ *           varint byte length of the name, its UTF-8 bytes, byte FILE or TREE,
+ *           20-byte raw hash of the blob or of the root of the subdirectory,
+ *           and for a subdirectory the varint number of files below it
+ *    INNER  byte 1, varint number of children, followed by, in digit order,
+ *           byte digit, varint number of entries below it, varint number of files
+ *           below it, 20-byte raw node hash
+ *
+ * The root is saved within the commit (see CommitCodec). A Manifest is never
+ * changed; put and remove return a new one sharing every node off the path to the
+ * file, and a child commit only saves the nodes on the paths to the files it
+ * changed. Committing one file in a repository of 200k files writes a leaf and a
+ * few inner nodes per directory on its path, not 200k entries. Nodes are read from
+ * the store the first time they are needed, so looking up one file only reads the
+ * nodes on its path, and changedFiles skips every subtree whose hash is the same on
+ * both sides.
+ *
+ *  @author KAUNG SI THU
+ */
+class Manifest {
+
+    /** The largest number of entries a leaf holds below MAX_DEPTH. */
+    static final int LEAF_SIZE = 64;
+
+    /** The number of children of an inner node, one per hexadecimal digit. */
+    static final int FANOUT = 16;
+
+    /** The depth at which the digits of the name hash run out, below which every
+     *  node is a leaf whatever its size. */
+    static final int MAX_DEPTH = UID_LENGTH;
+
+    /** The kinds of a saved node, written as its first byte. */
+    static final int LEAF = 0;
+    static final int INNER = 1;
+
+    /** The kinds of a leaf entry. */
+    static final int FILE = 0;
+    static final int TREE = 1;
+
+    /** The separator of the directories in a path. */
+    static final String SEPARATOR = "/";
+
+    /** An entry of a directory: a file or a subdirectory. */
+    private static final class Entry {
+
+        /** The hashed content of a file, null for a subdirectory. */
+        private final ObjectId blob;
+
+        /** The root of a subdirectory, null for a file. */
+        private final Node tree;
+
+        Entry(ObjectId blob) {
+            this.blob = blob;
+            this.tree = null;
+        }
+
+        Entry(Node tree) {
+            this.blob = null;
+            this.tree = tree;
+        }
+
+        int files() {
+            return tree == null ? 1 : tree.files;
+        }
+
+        boolean isSame(Entry other) {
+            if (blob != null) {
+                return blob.equals(other.blob);
+            }
+            return other.tree != null && Manifest.isSame(tree, other.tree);
+        }
+    }
+
+    /** A node of the trie of a directory. A node read from a saved node only knows
+     *  its hash and sizes until load reads it from the store. */
+    private static final class Node {
+
+        /** The hash of the saved node, null until it is saved. */
+        private ObjectId id;
+
+        /** The number of entries in and below this node, within its directory. */
+        private int size;
+
+        /** The number of files in and below this node, in every subdirectory. */
+        private int files;
+
+        /** The entries of a leaf, null for an inner node or until loaded. */
+        private TreeMap<String, Entry> entries;
+
+        /** The children of an inner node by digit, null for a leaf or until loaded. */
+        private Node[] children;
+
+        Node(ObjectId id, int size, int files) {
+            this.id = id;
+            this.size = size;
+            this.files = files;
+        }
+
+        Node(TreeMap<String, Entry> entries) {
+            this.entries = entries;
+            count();
+        }
+
+        Node(Node[] children) {
+            this.children = children;
+            count();
+        }
+
+        boolean isLeaf() {
+            return entries != null;
+        }
+
+        /** Set the sizes from the loaded entries or children. */
+        void count() {
+            size = 0;
+            files = 0;
+            if (entries != null) {
+                size = entries.size();
+                for (Entry entry : entries.values()) {
+                    files += entry.files();
+                }
+            } else {
+                for (Node child : children) {
+                    if (child != null) {
+                        size += child.size;
+                        files += child.files;
+                    }
+                }
+            }
+        }
+    }
+
+    /** The node of an empty directory. */
+    private static final Node EMPTY_NODE = new Node(new TreeMap<>());
+
+    /** An empty manifest. */
+    private static final Manifest EMPTY = new Manifest(EMPTY_NODE, null);
+
+
+
+    /* Instance Variables */
+    /** The root of the trie of the top directory. */
+    private final Node root;
+
+    /** The blob store the saved nodes are read from, null if there are none. */
+    private final ObjectStore store;
+
+    private Manifest(Node root, ObjectStore store) {
+        this.root = root;
+        this.store = store;
+    }
+
+    /**
+     * Return the manifest without files.
+     * @return the empty manifest
+     */
+    static Manifest empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Return the manifest of FILES, e.g. the files of a commit saved before manifests
+     * were tries. None of its nodes is saved yet.
+     * @param files path keyed hashed-blob-content
+     * @return the manifest holding the files
+     */
+    static Manifest of(SortedMap<String, ObjectId> files) {
+        Manifest result = EMPTY;
+        for (Map.Entry<String, ObjectId> entry : files.entrySet()) {
+            result = result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Return the manifest whose saved root is ROOT. The other nodes are read from
+     * STORE when first needed.
+     * @param root the saved form of the root node, left as it was
+     * @param store the blob store holding the other nodes
+     * @return the decoded manifest
+     */
+    static Manifest decode(ByteBuffer root, ObjectStore store) {
+        Node node = new Node(null, 0, 0);
+        decodeNode(node, root.duplicate());
+        return new Manifest(node, store);
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                       Methods to Look Up and Change Files                    *
+     ********************************************************************************/
+
+    /**
+     * Return the number of files in this manifest, in every directory.
+     * @return the number of files
+     */
+    int size() {
+        return root.files;
+    }
+
+    /**
+     * Return the hashed content of the file, reading only the nodes on its path.
+     * @param path the path of the file, its directories separated by SEPARATOR
+     * @return the hashed content of the file, null if there is no such file
+     */
+    ObjectId get(String path) {
+        Node directory = root;
+        String[] names = path.split(SEPARATOR);
+        for (int i = 0; i < names.length - 1; i += 1) {
+            Entry entry = find(directory, names[i]);
+            if (entry == null || entry.tree == null) {
+                return null;
+            }
+            directory = entry.tree;
+        }
+        Entry entry = find(directory, names[names.length - 1]);
+        return entry == null ? null : entry.blob;
+    }
+
+    /**
+     * Return a manifest with the file set to the hashed content. A file in the way
+     * of one of its directories, or a directory in the way of the file, is replaced.
+     * @param path the path of the file, its directories separated by SEPARATOR
+     * @param hashedContent the hashed content of the file
+     * @return the new manifest, this one if the file already has that content
+     */
+    Manifest put(String path, ObjectId hashedContent) {
+        Node result = put(root, path.split(SEPARATOR), 0, hashedContent);
+        return result == root ? this : new Manifest(result, store);
+    }
+
+    /**
+     * Return a manifest without the file. Directories left without files are
+     * removed with it.
+     * @param path the path of the file, its directories separated by SEPARATOR
+     * @return the new manifest, this one if there is no such file
+     */
+    Manifest remove(String path) {
+        Node result = remove(root, path.split(SEPARATOR), 0);
+        return result == root ? this : new Manifest(result, store);
+    }
+
+    /**
+     * Return every file of this manifest, reading every node.
+     * @return path keyed hashed-blob-content
+     */
+    TreeMap<String, ObjectId> files() {
+        TreeMap<String, ObjectId> result = new TreeMap<>();
+        collectFiles(root, "", result);
+        return result;
+    }
+
+    /**
+     * Return the paths of the files that differ between this manifest and OTHER:
+     * the files that are in only one of them or have different contents. Subtrees
+     * with the same hash on both sides are not read.
+     * @param other the manifest compared with this one
+     * @return the paths of the changed files, in path order
+     */
+    TreeSet<String> changedFiles(Manifest other) {
+        TreeSet<String> result = new TreeSet<>();
+        diff(root, other, other.root, "", result);
+        return result;
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                       Methods to Save and Copy the Nodes                     *
+     ********************************************************************************/
+
+    /**
+     * Save every node but the root that is not saved yet in STORE, the children and
+     * subdirectories of a node before the node.
+     * @param store the blob store receiving the nodes
+     * @param level the Deflater level the nodes are saved with
+     */
+    void save(ObjectStore store, int level) {
+        saveBelow(root, store, level);
+    }
+
+    /**
+     * Return the saved form of the root. Every other node must be saved.
+     * @return the encoded root node
+     */
+    byte[] encodeRoot() {
+        return encode(root);
+    }
+
+    /**
+     * Add the nodes and blobs of this manifest that DESTINATION does not have to
+     * OBJECTS, every object after the objects it refers to. A node DESTINATION has
+     * is not walked, as the objects below it were copied before it.
+     * @param destination the blob store the objects are copied to
+     * @param objects the objects to copy, in the order they are to be copied
+     */
+    void missing(ObjectStore destination, Set<String> objects) {
+        missing(root, destination, objects);
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                     Private Helper Methods for the Paths                     *
+     ********************************************************************************/
+
+    /** Return the directory DIRECTORY with the file NAMES[I..] set, and DIRECTORY
+     *  itself if nothing changed. */
+    private Node put(Node directory, String[] names, int i, ObjectId hashedContent) {
+        String name = names[i];
+        if (i == names.length - 1) {
+            return setEntry(directory, name, new Entry(hashedContent));
+        }
+        Entry entry = find(directory, name);
+        Node subdirectory = entry == null || entry.tree == null ? EMPTY_NODE : entry.tree;
+        Node changed = put(subdirectory, names, i + 1, hashedContent);
+        if (changed == subdirectory) {
+            return directory;
+        }
+        return setEntry(directory, name, new Entry(changed));
+    }
+
+    /** Return the directory DIRECTORY without the file NAMES[I..], and DIRECTORY
+     *  itself if nothing changed. */
+    private Node remove(Node directory, String[] names, int i) {
+        String name = names[i];
+        Entry entry = find(directory, name);
+        if (entry == null) {
+            return directory;
+        }
+        if (i == names.length - 1) {
+            return entry.tree == null ? setEntry(directory, name, null) : directory;
+        }
+        if (entry.tree == null) {
+            return directory;
+        }
+        Node changed = remove(entry.tree, names, i + 1);
+        if (changed == entry.tree) {
+            return directory;
+        }
+        return setEntry(directory, name, changed.files == 0 ? null : new Entry(changed));
+    }
+
+    /** Put the files in and below the directory node NODE into RESULT, their paths
+     *  starting with PREFIX. */
+    private void collectFiles(Node node, String prefix, TreeMap<String, ObjectId> result) {
+        for (Map.Entry<String, Entry> entry : entries(node).entrySet()) {
+            collectFiles(entry.getValue(), prefix + entry.getKey(), result);
+        }
+    }
+
+    /** Put the file ENTRY, or the files below it, into RESULT. */
+    private void collectFiles(Entry entry, String path, TreeMap<String, ObjectId> result) {
+        if (entry.tree == null) {
+            result.put(path, entry.blob);
+        } else {
+            collectFiles(entry.tree, path + SEPARATOR, result);
+        }
+    }
+
+    /** Add the paths of the files that differ between the node MINE of this manifest
+     *  and the node THEIRS of OTHER, both in the directory PREFIX, to RESULT. */
+    private void diff(Node mine, Manifest other, Node theirs, String prefix,
+                      TreeSet<String> result) {
+        if (isSame(mine, theirs)) {
+            return;
+        }
+        load(mine);
+        other.load(theirs);
+        if (!mine.isLeaf() && !theirs.isLeaf()) {
+            for (int digit = 0; digit < FANOUT; digit += 1) {
+                Node myChild = mine.children[digit];
+                Node theirChild = theirs.children[digit];
+                diff(myChild == null ? EMPTY_NODE : myChild, other,
+                     theirChild == null ? EMPTY_NODE : theirChild, prefix, result);
+            }
+            return;
+        }
+
+        TreeMap<String, Entry> myEntries = entries(mine);
+        TreeMap<String, Entry> theirEntries = other.entries(theirs);
+        TreeSet<String> names = new TreeSet<>(myEntries.keySet());
+        names.addAll(theirEntries.keySet());
+        for (String name : names) {
+            Entry myEntry = myEntries.get(name);
+            Entry theirEntry = theirEntries.get(name);
+            String path = prefix + name;
+            if (myEntry != null && theirEntry != null && myEntry.isSame(theirEntry)) {
+                continue;
+            }
+            if (myEntry != null && theirEntry != null
+                && myEntry.tree != null && theirEntry.tree != null) {
+                diff(myEntry.tree, other, theirEntry.tree, path + SEPARATOR, result);
+                continue;
+            }
+            TreeMap<String, ObjectId> changed = new TreeMap<>();
+            if (myEntry != null) {
+                collectFiles(myEntry, path, changed);
+            }
+            if (theirEntry != null) {
+                other.collectFiles(theirEntry, path, changed);
+            }
+            result.addAll(changed.keySet());
+        }
+    }
+
+    /** Return if A and B are the same node, and thus hold the same files. */
+    private static boolean isSame(Node a, Node b) {
+        return a == b || (a.id != null && a.id.equals(b.id));
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                  Private Helper Methods for the Directory Tries              *
+     ********************************************************************************/
+
+    /** Return the entry NAME of the directory whose trie is rooted at NODE, null if
+     *  there is no such entry. */
+    private Entry find(Node node, String name) {
+        String digits = sha1(name);
+        for (int depth = 0; node != null; depth += 1) {
+            load(node);
+            if (node.isLeaf()) {
+                return node.entries.get(name);
+            }
+            node = node.children[digit(digits, depth)];
+        }
+        return null;
+    }
+
+    /** Return the directory whose trie is rooted at NODE with the entry NAME set to
+     *  ENTRY, or removed if ENTRY is null, and NODE itself if nothing changed. */
+    private Node setEntry(Node node, String name, Entry entry) {
+        return setEntry(node, 0, sha1(name), name, entry);
+    }
+
+    private Node setEntry(Node node, int depth, String digits, String name, Entry entry) {
+        load(node);
+        if (node.isLeaf()) {
+            Entry old = node.entries.get(name);
+            if (old == null ? entry == null : entry != null && old.isSame(entry)) {
+                return node;
+            }
+            TreeMap<String, Entry> entries = new TreeMap<>(node.entries);
+            if (entry == null) {
+                entries.remove(name);
+            } else {
+                entries.put(name, entry);
+            }
+            return build(entries, depth);
+        }
+
+        int digit = digit(digits, depth);
+        Node child = node.children[digit];
+        Node changed = setEntry(child == null ? EMPTY_NODE : child, depth + 1, digits,
+                                name, entry);
+        if (changed == child || (child == null && changed == EMPTY_NODE)) {
+            return node;
+        }
+        Node[] children = node.children.clone();
+        children[digit] = changed.size == 0 ? null : changed;
+        Node result = new Node(children);
+        if (result.size <= LEAF_SIZE) {
+            return new Node(entries(result));
+        }
+        return result;
+    }
+
+    /** Return the node of ENTRIES at DEPTH: a leaf if they are few enough, an inner
+     *  node splitting them by the digit at DEPTH of their name hashes otherwise. */
+    private static Node build(TreeMap<String, Entry> entries, int depth) {
+        if (entries.size() <= LEAF_SIZE || depth >= MAX_DEPTH) {
+            return new Node(entries);
+        }
+        List<TreeMap<String, Entry>> split = new ArrayList<>();
+        for (int i = 0; i < FANOUT; i += 1) {
+            split.add(new TreeMap<>());
+        }
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            int digit = digit(sha1(entry.getKey()), depth);
+            split.get(digit).put(entry.getKey(), entry.getValue());
+        }
+        Node[] children = new Node[FANOUT];
+        for (int i = 0; i < FANOUT; i += 1) {
+            if (!split.get(i).isEmpty()) {
+                children[i] = build(split.get(i), depth + 1);
+            }
+        }
+        return new Node(children);
+    }
+
+    /** Return the entries in and below NODE, within its directory. */
+    private TreeMap<String, Entry> entries(Node node) {
+        load(node);
+        if (node.isLeaf()) {
+            return node.entries;
+        }
+        TreeMap<String, Entry> result = new TreeMap<>();
+        for (Node child : node.children) {
+            if (child != null) {
+                result.putAll(entries(child));
+            }
+        }
+        return result;
+    }
+
+    /** Return the digit at DEPTH of the hexadecimal hash DIGITS. */
+    private static int digit(String digits, int depth) {
+        return Character.digit(digits.charAt(depth), 16);
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                 Private Helper Methods to Read and Write Nodes               *
+     ********************************************************************************/
+
+    /** Save the unsaved nodes below NODE, within its directory and in the
+     *  subdirectories. */
+    private static void saveBelow(Node node, ObjectStore store, int level) {
+        if (node.isLeaf()) {
+            for (Entry entry : node.entries.values()) {
+                if (entry.tree != null) {
+                    save(entry.tree, store, level);
+                }
+            }
+        } else {
+            for (Node child : node.children) {
+                if (child != null) {
+                    save(child, store, level);
+                }
+            }
+        }
+    }
+
+    /** Save NODE and the unsaved nodes below it. */
+    private static void save(Node node, ObjectStore store, int level) {
+        if (node.id != null) {
+            return;
+        }
+        saveBelow(node, store, level);
+        byte[] encoded = encode(node);
+        String hash = sha1(encoded);
+        try (ObjectStore.Writer writer = store.newObject()) {
+            ObjectEncoding.write(new ByteArrayInputStream(encoded), writer.stream(),
+                    null, level);
+            writer.save(hash);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        node.id = ObjectId.fromHex(hash);
+    }
+
+    /** Add the objects in and below NODE that DESTINATION lacks to OBJECTS. A node
+     *  that is not saved (the root) is walked but is not an object itself. */
+    private void missing(Node node, ObjectStore destination, Set<String> objects) {
+        String id = node.id == null ? null : node.id.toString();
+        if (id != null && (objects.contains(id) || destination.contains(id))) {
+            return;
+        }
+        load(node);
+        if (node.isLeaf()) {
+            for (Entry entry : node.entries.values()) {
+                if (entry.tree != null) {
+                    missing(entry.tree, destination, objects);
+                } else {
+                    String blob = entry.blob.toString();
+                    if (!objects.contains(blob) && !destination.contains(blob)) {
+                        objects.add(blob);
+                    }
+                }
+            }
+        } else {
+            for (Node child : node.children) {
+                if (child != null) {
+                    missing(child, destination, objects);
+                }
+            }
+        }
+        if (id != null) {
+            objects.add(id);
+        }
+    }
+
+    /** Read the entries or children of NODE from the store, unless they are read.
+     *  Nodes are shared by the commits in the CommitCache, hence the lock. */
+    private void load(Node node) {
+        synchronized (node) {
+            if (node.entries != null || node.children != null) {
+                return;
+            }
+            String id = node.id.toString();
+            ByteBuffer saved = store == null ? null : store.read(id);
+            if (saved == null) {
+                throw ObjectStore.missingObject(id);
+            }
+            decodeNode(node, saved);
+        }
+    }
+
+    /** Return the saved form of NODE, whose children and subdirectories are all
+     *  saved. */
+    private static byte[] encode(Node node) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if (node.isLeaf()) {
+                out.write(LEAF);
+                writeVarint(out, node.entries.size());
+                for (Map.Entry<String, Entry> entry : node.entries.entrySet()) {
+                    CommitCodec.writeString(out, entry.getKey());
+                    Entry value = entry.getValue();
+                    if (value.tree == null) {
+                        out.write(FILE);
+                        value.blob.writeTo(out);
+                    } else {
+                        out.write(TREE);
+                        savedId(value.tree).writeTo(out);
+                        writeVarint(out, value.tree.files);
+                    }
+                }
+            } else {
+                int count = 0;
+                for (Node child : node.children) {
+                    count += child == null ? 0 : 1;
+                }
+                out.write(INNER);
+                writeVarint(out, count);
+                for (int digit = 0; digit < FANOUT; digit += 1) {
+                    Node child = node.children[digit];
+                    if (child == null) {
+                        continue;
+                    }
+                    out.write(digit);
+                    writeVarint(out, child.size);
+                    writeVarint(out, child.files);
+                    savedId(child).writeTo(out);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Internal error serializing manifest.");
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the hash of the saved NODE. */
+    private static ObjectId savedId(Node node) {
+        if (node.id == null) {
+            throw new IllegalStateException("Manifest node not saved.");
+        }
+        return node.id;
+    }
+
+    /** Read the entries or children of NODE from its saved form in BUFFER. */
+    private static void decodeNode(Node node, ByteBuffer buffer) {
+        InputStream in = new ByteBufferInputStream(buffer);
+        try {
+            int kind = in.read();
+            long count = readVarint(in);
+            if (kind == LEAF) {
+                TreeMap<String, Entry> entries = new TreeMap<>();
+                for (long i = 0; i < count; i += 1) {
+                    String name = CommitCodec.readString(in);
+                    int entryKind = in.read();
+                    ObjectId hash = ObjectId.read(in);
+                    if (entryKind == FILE) {
+                        entries.put(name, new Entry(hash));
+                    } else if (entryKind == TREE) {
+                        int files = (int) readVarint(in);
+                        entries.put(name, new Entry(new Node(hash, 0, files)));
+                    } else {
+                        throw error("Corrupt manifest node.");
+                    }
+                }
+                node.entries = entries;
+            } else if (kind == INNER) {
+                Node[] children = new Node[FANOUT];
+                for (long i = 0; i < count; i += 1) {
+                    int digit = in.read();
+                    if (digit < 0 || digit >= FANOUT) {
+                        throw error("Corrupt manifest node.");
+                    }
+                    int size = (int) readVarint(in);
+                    int files = (int) readVarint(in);
+                    children[digit] = new Node(ObjectId.read(in), size, files);
+                }
+                node.children = children;
+            } else {
+                throw error("Corrupt manifest node.");
+            }
+            node.count();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package src;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/** A store of saved objects kept on the heap only.
+ *
+ * Nothing is written to disk, so a repository whose stores are MemoryObjectStores
+ * (see Repository.useStores) can be driven by benchmarks such as StoreBench
+ * without the cost, or the leftovers, of the file system.
+ *
+ *  @author KAUNG SI THU
+ */
+class MemoryObjectStore implements ObjectStore {
+
+    /** The saved form of each object, by hash. */
+    private final TreeMap<String, byte[]> objects = new TreeMap<>();
+
+    @Override
+    public boolean contains(String hash) {
+        return objects.containsKey(hash);
+    }
+
+    @Override
+    public InputStream openSaved(String hash) {
+        byte[] saved = objects.get(hash);
+        if (saved == null) {
+            throw ObjectStore.missingObject(hash);
+        }
+        return new ByteArrayInputStream(saved);
+    }
+
+    @Override
+    public ByteBuffer readSaved(String hash) {
+        byte[] saved = objects.get(hash);
+        if (saved == null) {
+            return null;
+        }
+        return ByteBuffer.wrap(saved).asReadOnlyBuffer();
+    }
+
+    @Override
+    public List<String> ids(String prefix) {
+        List<String> ids = new ArrayList<>();
+        for (String hash : objects.tailMap(prefix).keySet()) {
+            if (!hash.startsWith(prefix)) {
+                break;
+            }
+            ids.add(hash);
+        }
+        return ids;
+    }
+
+    @Override
+    public Writer newObject() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        return new Writer() {
+            @Override
+            public OutputStream stream() {
+                return out;
+            }
+
+            @Override
+            public void save(String hash) {
+                objects.putIfAbsent(hash, out.toByteArray());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Return the number of objects in this store.
+     * @return the number of objects
+     */
+    int size() {
+        return objects.size();
+    }
+}
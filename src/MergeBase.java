@@ -0,0 +1,274 @@
+package src;
+
+import java.util.*;
+
+/** Finds the merge bases of two commits: their common ancestors that are not the
+ * ancestor of another common ancestor.
+ *
+ * Both commits are walked at once, newest first: a queue hands out the commit of the
+ * highest generation number (see CommitGraph), and of the latest timestamp among
+ * equal generations. Every commit is marked with the side(s) it was reached from,
+ * and the marks are passed down to its parents. A commit reached from both sides is
+ * a merge base, unless it was reached through another one; its ancestors are marked
+ * STALE, as none of them can be a merge base any more. The walk stops as soon as
+ * only STALE commits are left, so only the history the two sides do not share, plus
+ * a frontier as wide as the history, is ever read. As a parent always comes out
+ * after its children, a commit is never marked after it was handed out.
+ *
+ * Commits in the commit graph are read from it by position. Commits made since the
+ * last repack are read from the commit store; they count as the highest generation,
+ * so that they come out before every commit of the graph, and among themselves by
+ * timestamp.
+ *
+ * In a criss-cross history there can be several merge bases. all returns each of
+ * them, best the best one, i.e. the one of the highest generation.
+ *
+ *  @author KAUNG SI THU
+ */
+class MergeBase {
+
+    /** The marks of a commit: reached from the first side, from the second side,
+     *  below a merge base, and already taken as a merge base. */
+    private static final int PARENT1 = 1;
+    private static final int PARENT2 = 2;
+    private static final int STALE = 4;
+    private static final int RESULT = 8;
+
+    /** The generation counted for the commits that are not in the commit graph. */
+    private static final int INFINITY = Integer.MAX_VALUE;
+
+    /** A commit met by the walk. */
+    private static final class Node {
+        private final ObjectId hash;
+        private final int position;
+        private final int generation;
+        private final long timestamp;
+        private Node[] parents;
+        private int flags;
+
+        Node(ObjectId hash, int position, int generation, long timestamp) {
+            this.hash = hash;
+            this.position = position;
+            this.generation = generation;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /** Newest first: by generation, then by timestamp. */
+    private static final Comparator<Node> NEWEST_FIRST = (a, b) -> {
+        if (a.generation != b.generation) {
+            return Integer.compare(b.generation, a.generation);
+        }
+        return Long.compare(b.timestamp, a.timestamp);
+    };
+
+
+
+    /* Instance Variables */
+    /** The commit graph and whether the local or the remote commits are walked. */
+    private final CommitGraph graph;
+    private final boolean isRemote;
+
+    /** The nodes met so far, by position in the graph and by hash otherwise. */
+    private final Map<Integer, Node> packed = new HashMap<>();
+    private final Map<ObjectId, Node> loose = new HashMap<>();
+
+    private MergeBase(boolean isRemote) {
+        this.graph = Repository.commitGraph(isRemote);
+        this.isRemote = isRemote;
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                          Methods to Find Merge Bases                         *
+     ********************************************************************************/
+
+    /**
+     * Return every merge base of two commits, best first.
+     * @param hashedCommit1 the hash of the first commit
+     * @param hashedCommit2 the hash of the second commit
+     * @param isRemote remote or local tree
+     * @return the hashes of the merge bases, empty if the commits share no history
+     */
+    static List<String> all(String hashedCommit1, String hashedCommit2, boolean isRemote) {
+        MergeBase walk = new MergeBase(isRemote);
+        List<String> result = new ArrayList<>();
+        Node one = walk.node(ObjectId.fromHex(hashedCommit1));
+        Node two = walk.node(ObjectId.fromHex(hashedCommit2));
+        for (Node base : walk.find(one, two)) {
+            result.add(walk.hash(base).toString());
+        }
+        return result;
+    }
+
+    /**
+     * Return the best merge base of two commits, the one of the highest generation.
+     * @param hashedCommit1 the hash of the first commit
+     * @param hashedCommit2 the hash of the second commit
+     * @param isRemote remote or local tree
+     * @return the hash of the best merge base, null if the commits share no history
+     */
+    static String best(String hashedCommit1, String hashedCommit2, boolean isRemote) {
+        List<String> bases = all(hashedCommit1, hashedCommit2, isRemote);
+        return bases.isEmpty() ? null : bases.get(0);
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /** Return the merge bases of ONE and TWO, best first. */
+    private List<Node> find(Node one, Node two) {
+        if (one == two) {
+            return List.of(one);
+        }
+
+        List<Node> candidates = paintDownToCommon(one, two);
+        candidates.removeIf(node -> (node.flags & STALE) != 0);
+        List<Node> bases = new ArrayList<>();
+        for (Node candidate : candidates) {
+            boolean redundant = false;
+            for (Node other : candidates) {
+                if (other != candidate && isAncestor(candidate, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                bases.add(candidate);
+            }
+        }
+        bases.sort(NEWEST_FIRST);
+        return bases;
+    }
+
+    /**
+     * Walk both commits at once down to their common ancestors.
+     * @return the common ancestors reached from both sides before any other one
+     */
+    private List<Node> paintDownToCommon(Node one, Node two) {
+        PriorityQueue<Node> queue = new PriorityQueue<>(NEWEST_FIRST);
+        one.flags |= PARENT1;
+        two.flags |= PARENT2;
+        queue.add(one);
+        queue.add(two);
+
+        List<Node> result = new ArrayList<>();
+        while (hasNonStale(queue)) {
+            Node node = queue.remove();
+            int flags = node.flags & (PARENT1 | PARENT2 | STALE);
+            if (flags == (PARENT1 | PARENT2)) {
+                if ((node.flags & RESULT) == 0) {
+                    node.flags |= RESULT;
+                    result.add(node);
+                }
+                flags |= STALE;
+            }
+            for (Node parent : parents(node)) {
+                if ((parent.flags & flags) == flags) {
+                    continue;
+                }
+                parent.flags |= flags;
+                queue.add(parent);
+            }
+        }
+        return result;
+    }
+
+    /** Return if any commit in QUEUE is not yet STALE. */
+    private static boolean hasNonStale(PriorityQueue<Node> queue) {
+        for (Node node : queue) {
+            if ((node.flags & STALE) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return if ANCESTOR is a proper ancestor of DESCENDANT. Commits of a lower
+     * generation than ANCESTOR are not walked, as ANCESTOR cannot be among their
+     * ancestors.
+     */
+    private boolean isAncestor(Node ancestor, Node descendant) {
+        Set<Node> seen = new HashSet<>();
+        Deque<Node> fringe = new ArrayDeque<>();
+        fringe.push(descendant);
+        while (!fringe.isEmpty()) {
+            for (Node parent : parents(fringe.pop())) {
+                if (parent == ancestor) {
+                    return true;
+                }
+                if (parent.generation >= ancestor.generation && seen.add(parent)) {
+                    fringe.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the node of the commit with the given hash. */
+    private Node node(ObjectId hash) {
+        int position = graph.position(hash);
+        if (position >= 0) {
+            return node(position);
+        }
+
+        Node node = loose.get(hash);
+        if (node == null) {
+            Commit commit = Commit.readCommit(hash, isRemote);
+            node = new Node(hash, -1, INFINITY, commit.getTimestamp().getTime());
+            loose.put(hash, node);
+        }
+        return node;
+    }
+
+    /** Return the node of the commit at POSITION in the commit graph. */
+    private Node node(int position) {
+        Node node = packed.get(position);
+        if (node == null) {
+            node = new Node(null, position, graph.generation(position),
+                graph.timestamp(position));
+            packed.put(position, node);
+        }
+        return node;
+    }
+
+    /** Return the nodes of the parents of NODE. */
+    private Node[] parents(Node node) {
+        if (node.parents != null) {
+            return node.parents;
+        }
+
+        List<Node> parents = new ArrayList<>(2);
+        if (node.position >= 0) {
+            for (int parent : new int[] {graph.parent(node.position),
+                graph.secondParent(node.position)}) {
+                if (parent != CommitGraph.NO_PARENT) {
+                    parents.add(node(parent));
+                }
+            }
+        } else {
+            Commit commit = Commit.readCommit(node.hash, isRemote);
+            for (ObjectId parent : commit.getParentIds()) {
+                parents.add(node(parent));
+            }
+        }
+        node.parents = parents.toArray(new Node[0]);
+        return node.parents;
+    }
+
+    /** Return the hash of the commit of NODE. */
+    private ObjectId hash(Node node) {
+        return node.hash != null ? node.hash : graph.hash(node.position);
+    }
+}
@@ -0,0 +1,352 @@
+package src;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static src.Utils.*;
+
+/** Encodes and decodes the saved form of an object (a blob, a manifest node or a
+ *  commit).
+ *
+ * Every saved object starts with one byte naming how the rest of it is encoded:
+ *
+ *    STORED   -- the content as it is.
+ *    DEFLATED -- the content compressed with java.util.zip.Deflater.
+ *    DELTA    -- the 20-byte raw hash of a base blob in the same object store, the
+ *                varint depth of the delta chain, then the deflated instructions
+ *                rebuilding the content from the base (see Delta). A base may be a
+ *                delta itself; the depth counts the deltas down to a full object.
+ *    CHUNKED  -- the manifest of a large blob cut into chunks (see Chunker): the
+ *                varint length of the content, the varint number of chunks, then
+ *                the 20-byte raw hash and the varint length of each chunk in order.
+ *                The chunks are blobs of their own in the same object store, so
+ *                chunks shared by several blobs are saved and copied only once.
+ *
+ * The id of an object is always the SHA-1 of its content, never of its saved form,
+ * so the same content has the same id whatever the compression level of the
+ * repository that saved it, and saved objects are copied between repositories
+ * without decoding them.
+ *
+ * Before compressing, the byte entropy of the start of the content is sampled.
+ * Content that looks random (archives, images, already compressed data) would not
+ * shrink, so it is stored as it is instead of spending time on the Deflater.
+ *
+ *  @author KAUNG SI THU
+ */
+class ObjectEncoding {
+
+    /** The encodings of a saved object, written as its first byte. */
+    static final int STORED = 0;
+    static final int DEFLATED = 1;
+    static final int DELTA = 2;
+    static final int CHUNKED = 3;
+
+    /** The number of bytes at the start of the content whose entropy is sampled. */
+    static final int SAMPLE_SIZE = 64 * 1024;
+
+    /** The entropy, in bits per byte, above which content is not compressed. */
+    static final double MAX_COMPRESSIBLE_ENTROPY = 7.5;
+
+
+
+
+
+
+    /********************************************************************************
+     *                          Methods to Encode an Object                         *
+     ********************************************************************************/
+
+    /**
+     * Write the saved form of the content read from IN to OUT.
+     * @param in the content of the object
+     * @param out the stream receiving the saved form
+     * @param md the digest updated with the content, or null
+     * @param level the Deflater level, 0 to never compress
+     */
+    static void write(InputStream in, OutputStream out, MessageDigest md,
+                      int level) throws IOException {
+        byte[] sample = in.readNBytes(SAMPLE_SIZE);
+        if (md != null) {
+            md.update(sample);
+        }
+
+        if (level == Deflater.NO_COMPRESSION || !isCompressible(sample)) {
+            out.write(STORED);
+            out.write(sample);
+            Blob.copy(in, out, md);
+            return;
+        }
+
+        out.write(DEFLATED);
+        Deflater deflater = new Deflater(level);
+        try {
+            DeflaterOutputStream deflated =
+                new DeflaterOutputStream(out, deflater, Blob.BUFFER_SIZE);
+            deflated.write(sample);
+            Blob.copy(in, deflated, md);
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Write the saved form of an object rebuilt by DELTA from the base blob to OUT.
+     * @param out the stream receiving the saved form
+     * @param base the hash of the base blob
+     * @param depth the depth of the base plus one
+     * @param delta the instructions computed by Delta.compute
+     * @param level the Deflater level of the instructions
+     */
+    static void writeDelta(OutputStream out, String base, int depth, byte[] delta,
+                           int level) throws IOException {
+        out.write(DELTA);
+        out.write(rawHash(base));
+        writeVarint(out, depth);
+
+        Deflater deflater = new Deflater(level);
+        try {
+            DeflaterOutputStream deflated =
+                new DeflaterOutputStream(out, deflater, Blob.BUFFER_SIZE);
+            deflated.write(delta);
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Write the saved form of a blob made of the chunks with the given hashes to OUT.
+     * @param out the stream receiving the saved form
+     * @param length the length of the content
+     * @param chunks the hashes of the chunks, in order
+     * @param chunkLengths the lengths of the chunks, in order
+     */
+    static void writeChunked(OutputStream out, long length, List<String> chunks,
+                             List<Integer> chunkLengths) throws IOException {
+        out.write(CHUNKED);
+        writeVarint(out, length);
+        writeVarint(out, chunks.size());
+        for (int i = 0; i < chunks.size(); i += 1) {
+            out.write(rawHash(chunks.get(i)));
+            writeVarint(out, chunkLengths.get(i));
+        }
+    }
+
+    /**
+     * Return if SAMPLE is worth compressing, judging by its byte entropy.
+     * @param sample the start of the content
+     * @return true if the sample is below MAX_COMPRESSIBLE_ENTROPY, false otherwise.
+     */
+    static boolean isCompressible(byte[] sample) {
+        if (sample.length == 0) {
+            return false;
+        }
+
+        int[] counts = new int[256];
+        for (byte b : sample) {
+            counts[b & 0xff] += 1;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / sample.length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2) <= MAX_COMPRESSIBLE_ENTROPY;
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                          Methods to Decode an Object                         *
+     ********************************************************************************/
+
+    /**
+     * Return a stream of the content of the object whose saved form is read from IN.
+     * @param store the object store holding the object and its delta base
+     * @param in the saved form of the object
+     * @return a stream of the content of the object
+     */
+    static InputStream open(ObjectStore store, InputStream in) throws IOException {
+        int encoding = in.read();
+        switch (encoding) {
+            case STORED:
+                return in;
+            case DEFLATED:
+                return new InflatingStream(in);
+            case DELTA:
+                String base = hexHash(in.readNBytes(UID_RAW_LENGTH));
+                readVarint(in);
+                try (InputStream delta = new InflatingStream(in)) {
+                    return new ByteArrayInputStream(Delta.apply(readBase(store, base), delta));
+                }
+            case CHUNKED:
+                List<String> chunks = readChunks(in);
+                in.close();
+                return new SequenceInputStream(new Enumeration<InputStream>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasMoreElements() {
+                        return next < chunks.size();
+                    }
+
+                    @Override
+                    public InputStream nextElement() {
+                        next += 1;
+                        return store.open(chunks.get(next - 1));
+                    }
+                });
+            default:
+                in.close();
+                throw error("Unknown object encoding %d.", encoding);
+        }
+    }
+
+    /**
+     * Return the content of the object whose saved form is the remaining bytes of
+     * BUFFER. Stored objects are handed back as a slice of BUFFER without copying.
+     * @param store the object store holding the object and its delta base
+     * @param buffer the saved form of the object
+     * @return the content of the object
+     */
+    static ByteBuffer decode(ObjectStore store, ByteBuffer buffer) {
+        int encoding = buffer.get(buffer.position());
+        if (encoding == STORED) {
+            return buffer.slice(buffer.position() + 1, buffer.remaining() - 1);
+        }
+
+        try (InputStream in = open(store, new ByteBufferInputStream(buffer.duplicate()))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the whole content of the blob in STORE, from the delta cache if it is
+     * there. The content is cached, as it is about to be the base of a delta.
+     * @param store the object store holding the blob
+     * @param hash the hash of the blob
+     * @return the content of the blob
+     */
+    static byte[] readBase(ObjectStore store, String hash) {
+        byte[] content = Delta.cached(hash);
+        if (content != null) {
+            return content;
+        }
+
+        try (InputStream in = store.open(hash)) {
+            content = in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Delta.cache(hash, content);
+        return content;
+    }
+
+    /**
+     * Return the hashes of the objects needed to read the object whose saved form is
+     * read from IN, i.e. its delta base or its chunks.
+     * @param in the saved form of the object
+     * @return the hashes of the needed objects, empty if it needs none
+     */
+    static List<String> references(InputStream in) throws IOException {
+        switch (in.read()) {
+            case DELTA:
+                return List.of(hexHash(in.readNBytes(UID_RAW_LENGTH)));
+            case CHUNKED:
+                return readChunks(in);
+            default:
+                return List.of();
+        }
+    }
+
+    /**
+     * Return the hash of the delta base of the object whose saved form is read
+     * from IN.
+     * @param in the saved form of the object
+     * @return the hash of the base, null if the object is not a delta.
+     */
+    static String deltaBase(InputStream in) throws IOException {
+        if (in.read() != DELTA) {
+            return null;
+        }
+        return hexHash(in.readNBytes(UID_RAW_LENGTH));
+    }
+
+    /**
+     * Return the number of deltas to apply to rebuild the object whose saved form is
+     * read from IN.
+     * @param in the saved form of the object
+     * @return the depth of the delta chain, 0 if the object is not a delta.
+     */
+    static int deltaDepth(InputStream in) throws IOException {
+        if (deltaBase(in) == null) {
+            return 0;
+        }
+        return (int) readVarint(in);
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /** Read the chunk hashes of a CHUNKED manifest from IN, past its first byte. */
+    private static List<String> readChunks(InputStream in) throws IOException {
+        readVarint(in);
+        long count = readVarint(in);
+        List<String> chunks = new ArrayList<>();
+        for (long i = 0; i < count; i += 1) {
+            byte[] rawHash = in.readNBytes(UID_RAW_LENGTH);
+            if (rawHash.length < UID_RAW_LENGTH) {
+                throw new EOFException("Truncated chunk manifest.");
+            }
+            chunks.add(hexHash(rawHash));
+            readVarint(in);
+        }
+        return chunks;
+    }
+
+    /** An InflaterInputStream that releases its own Inflater when closed. */
+    private static class InflatingStream extends InflaterInputStream {
+
+        InflatingStream(InputStream in) {
+            super(in, new Inflater(), Blob.BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
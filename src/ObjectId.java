@@ -0,0 +1,252 @@
+package src;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import static src.Utils.*;
+
+/** The SHA-1 hash of an object, kept as its 20 raw bytes.
+ *
+ * Hashes used to be passed around as their 40-digit hexadecimal Strings: 40 chars
+ * plus the String and its array, over 90 bytes each, hashed and compared char by
+ * char. An ObjectId holds the same 20 bytes in two longs and an int, about 40
+ * bytes with its header, and equals and hashCode only look at those fields. The
+ * commits, manifests and history walks keep ObjectIds; the hexadecimal form is
+ * only made where a hash meets the user or a file name (see toString).
+ *
+ * ObjectIds sort in the order of their raw bytes, which is also the order of their
+ * hexadecimal forms, so they can stand in for them in sorted tables such as the
+ * CommitGraph.
+ *
+ *  @author KAUNG SI THU
+ */
+final class ObjectId implements Comparable<ObjectId>, Serializable {
+
+    /** Fixed to the value computed for the class when staging areas first saved
+     *  ObjectIds, so that they still read. */
+    private static final long serialVersionUID = -4574055143565950056L;
+
+    /** The hexadecimal digits, by value. */
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Raw bytes 0-7, 8-15 and 16-19 of the hash, big-endian. */
+    private final long high;
+    private final long middle;
+    private final int low;
+
+    private ObjectId(long high, long middle, int low) {
+        this.high = high;
+        this.middle = middle;
+        this.low = low;
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                          Methods to Make an ObjectId                         *
+     ********************************************************************************/
+
+    /**
+     * Return the ObjectId of a 40-digit hexadecimal hash, in either case.
+     * @param hex the hexadecimal hash
+     * @return the ObjectId of the hash
+     * @throws IllegalArgumentException if HEX is not a 40-digit hexadecimal hash
+     */
+    static ObjectId fromHex(String hex) {
+        if (hex.length() != UID_LENGTH) {
+            throw new IllegalArgumentException("Not a hash: " + hex);
+        }
+        return new ObjectId(parseHex(hex, 0, 16), parseHex(hex, 16, 16),
+                            (int) parseHex(hex, 32, 8));
+    }
+
+    /**
+     * Return if VALUE is a 40-digit hexadecimal hash, which fromHex accepts.
+     * @param value the String in question, possibly null
+     * @return true if VALUE is a hash, false otherwise.
+     */
+    static boolean isHex(String value) {
+        if (value == null || value.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UID_LENGTH; i += 1) {
+            if (hexDigit(value.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the ObjectId of the 20 raw bytes at OFFSET in BYTES.
+     * @param bytes the bytes holding the raw hash
+     * @param offset where the raw hash starts
+     * @return the ObjectId of the raw hash
+     */
+    static ObjectId fromRaw(byte[] bytes, int offset) {
+        return fromRaw(ByteBuffer.wrap(bytes), offset);
+    }
+
+    /**
+     * Return the ObjectId of the 20 raw bytes at INDEX in BUFFER, without moving the
+     * position of BUFFER, e.g. a hash of a memory-mapped table.
+     * @param buffer the buffer holding the raw hash
+     * @param index where the raw hash starts
+     * @return the ObjectId of the raw hash
+     */
+    static ObjectId fromRaw(ByteBuffer buffer, int index) {
+        return new ObjectId(buffer.getLong(index), buffer.getLong(index + 8),
+                            buffer.getInt(index + 16));
+    }
+
+    /**
+     * Read 20 raw bytes from IN and return their ObjectId.
+     * @param in the stream holding the raw hash
+     * @return the ObjectId of the raw hash
+     * @throws EOFException if IN ends before the hash does
+     */
+    static ObjectId read(InputStream in) throws IOException {
+        byte[] bytes = in.readNBytes(UID_RAW_LENGTH);
+        if (bytes.length < UID_RAW_LENGTH) {
+            throw new EOFException("Truncated hash.");
+        }
+        return fromRaw(bytes, 0);
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                         Methods to Write an ObjectId                         *
+     ********************************************************************************/
+
+    /**
+     * Write the 20 raw bytes of this hash to OUT.
+     * @param out the stream receiving the raw hash
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(toRaw());
+    }
+
+    /**
+     * Return the 20 raw bytes of this hash.
+     * @return a new array holding the raw hash
+     */
+    byte[] toRaw() {
+        return ByteBuffer.allocate(UID_RAW_LENGTH).putLong(high).putLong(middle)
+            .putInt(low).array();
+    }
+
+    /**
+     * Return the first raw byte of this hash, e.g. to index a fan-out table.
+     * @return the first byte, from 0 to 255
+     */
+    int firstByte() {
+        return (int) (high >>> 56);
+    }
+
+    /**
+     * Return the 40-digit lowercase hexadecimal form of this hash, the name of its
+     * object in the stores.
+     * @return the hexadecimal hash
+     */
+    @Override
+    public String toString() {
+        char[] hex = new char[UID_LENGTH];
+        formatHex(hex, 0, high, 16);
+        formatHex(hex, 16, middle, 16);
+        formatHex(hex, 32, low, 8);
+        return new String(hex);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId id = (ObjectId) other;
+        return high == id.high && middle == id.middle && low == id.low;
+    }
+
+    /** The bits of a SHA-1 hash are evenly spread already, so its first four bytes
+     *  make a good hash code. */
+    @Override
+    public int hashCode() {
+        return (int) (high >>> 32);
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int cmp = Long.compareUnsigned(high, other.high);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(middle, other.middle);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(low, other.low);
+        }
+        return cmp;
+    }
+
+    /**
+     * Compare this hash with the 20 raw bytes at INDEX in BUFFER, as compareTo
+     * would with their ObjectId, without making it.
+     * @param buffer the buffer holding the raw hash, e.g. a memory-mapped table
+     * @param index where the raw hash starts
+     * @return a negative number, zero or a positive number as this hash sorts
+     * before, with or after the raw hash
+     */
+    int compareTo(ByteBuffer buffer, int index) {
+        int cmp = Long.compareUnsigned(high, buffer.getLong(index));
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(middle, buffer.getLong(index + 8));
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(low, buffer.getInt(index + 16));
+        }
+        return cmp;
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /** Return the value of the COUNT hexadecimal digits of HEX at START. */
+    private static long parseHex(String hex, int start, int count) {
+        long value = 0;
+        for (int i = start; i < start + count; i += 1) {
+            int digit = hexDigit(hex.charAt(i));
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not a hash: " + hex);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /** Return the value of the ASCII hexadecimal digit C, -1 if it is not one. */
+    private static int hexDigit(char c) {
+        return c < 128 ? Character.digit(c, 16) : -1;
+    }
+
+    /** Write the COUNT low hexadecimal digits of VALUE into HEX at START. */
+    private static void formatHex(char[] hex, int start, long value, int count) {
+        for (int i = start + count - 1; i >= start; i -= 1) {
+            hex[i] = DIGITS[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package src;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static src.Utils.*;
+
+/** A store of saved objects (blobs, manifest nodes or commits) keyed by their hash.
+ *
+ * A store only deals in the saved form of objects, as written by ObjectEncoding;
+ * open and read decode them. Commit, Blob and the push/fetch copy go through the
+ * stores of the Repository (see Repository.commitStore and Repository.blobStore)
+ * rather than through File paths, so a backend can change how objects are kept
+ * without any of them noticing.
+ *
+ * FileObjectStore keeps the objects of a .gitlet object folder, loose or packed.
+ * MemoryObjectStore keeps them on the heap, for benchmarks (see StoreBench).
+ *
+ *  @author KAUNG SI THU
+ */
+interface ObjectStore {
+
+    /** An object being written whose hash is only known once it is written. */
+    interface Writer extends AutoCloseable {
+
+        /**
+         * Return the stream receiving the saved form of the object.
+         * @return the stream of the object
+         */
+        OutputStream stream();
+
+        /**
+         * Save the written object under HASH, unless the store already has it.
+         * @param hash the hash of the content of the object
+         */
+        void save(String hash);
+
+        /** Discard the object if it was not saved. */
+        @Override
+        void close();
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                         Methods Every Store Implements                       *
+     ********************************************************************************/
+
+    /**
+     * Return if the store holds the object.
+     * @param hash the hash of the object in question
+     * @return true if the object exists, false otherwise.
+     */
+    boolean contains(String hash);
+
+    /**
+     * Open the saved form of the object as a stream.
+     * @param hash the hash of the requested object
+     * @return a stream of the saved bytes of the object
+     */
+    InputStream openSaved(String hash);
+
+    /**
+     * Return a read-only view of the saved form of the object.
+     * @param hash the hash of the requested object
+     * @return the saved bytes of the object, null if no such object exists.
+     */
+    ByteBuffer readSaved(String hash);
+
+    /**
+     * Start writing a new object.
+     * @return the writer of the object
+     */
+    Writer newObject();
+
+    /**
+     * Return the hashes of the objects that start with PREFIX, in lexicographic order.
+     * @param prefix the first lowercase hexadecimal digits of the hashes, empty for
+     *               every object
+     * @return the sorted hashes starting with the prefix
+     */
+    List<String> ids(String prefix);
+
+
+
+
+
+
+    /********************************************************************************
+     *                      Methods Built on the Methods Above                      *
+     ********************************************************************************/
+
+    /**
+     * Return the hashes of every object in the store, in lexicographic order.
+     * @return the sorted hashes of the objects
+     */
+    default List<String> ids() {
+        return ids("");
+    }
+
+    /**
+     * Open the content of the object as a stream.
+     * @param hash the hash of the requested object
+     * @return a stream of the content of the object
+     */
+    default InputStream open(String hash) {
+        try {
+            return ObjectEncoding.open(this, openSaved(hash));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return a read-only view of the content of the object.
+     * @param hash the hash of the requested object
+     * @return the content of the object, null if no such object exists.
+     */
+    default ByteBuffer read(String hash) {
+        ByteBuffer saved = readSaved(hash);
+        if (saved == null) {
+            return null;
+        }
+        return ObjectEncoding.decode(this, saved);
+    }
+
+    /**
+     * Save the saved form of an object read from IN under HASH, unless the store
+     * already has it.
+     * @param hash the hash of the content of the object
+     * @param in the saved form of the object
+     */
+    default void put(String hash, InputStream in) {
+        if (contains(hash)) {
+            return;
+        }
+        try (Writer writer = newObject()) {
+            in.transferTo(writer.stream());
+            writer.save(hash);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return which of the objects are not in the store.
+     * @param hashes the hashes of the objects in question
+     * @return the hashes of the missing objects, in the order given
+     */
+    default List<String> missing(Collection<String> hashes) {
+        List<String> result = new ArrayList<>();
+        for (String hash : hashes) {
+            if (!contains(hash)) {
+                result.add(hash);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copy the objects DESTINATION does not have yet from this store into it. The
+     * saved form is copied as it is, without decoding and encoding it again, so the
+     * objects a copied object refers to (the base of a delta, the chunks of a
+     * chunked blob) are copied before it.
+     * @param destination the store receiving the objects
+     * @param hashes the hashes of the copied objects
+     */
+    default void copyTo(ObjectStore destination, Collection<String> hashes) {
+        for (String hash : destination.missing(hashes)) {
+            if (destination.contains(hash)) {
+                continue;
+            }
+
+            List<String> references;
+            try (InputStream in = openSaved(hash)) {
+                references = ObjectEncoding.references(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            copyTo(destination, references);
+
+            try (InputStream in = openSaved(hash)) {
+                destination.put(hash, in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Return the error thrown when the object is not in the store.
+     * @param hash the hash of the missing object
+     * @return the error to throw
+     */
+    static GitletException missingObject(String hash) {
+        return error("Missing object %s.", hash);
+    }
+}
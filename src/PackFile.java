@@ -0,0 +1,488 @@
+package src;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static src.Utils.*;
+
+/** Represents the pack of an object folder (.gitlet/blobs or .gitlet/commits).
+ *
+ * Loose objects are kept one-file-per-object in the fan-out folders of the object
+ * folder (see Repository.looseObject). Packing moves them into two files under the
+ * pack/ sub-folder of the object folder:
+ *
+ * pack/PACK  -- append-only data file. A header followed by entries of
+ *               [20-byte raw hash][8-byte length][object bytes].
+ * pack/INDEX -- a header followed by the entries of PACK sorted by hash,
+ *               each [20-byte raw hash][8-byte offset][8-byte length],
+ *               so that an object is found with a binary search.
+ *
+ * Both files are mapped into memory once per process, and packed objects are
+ * handed out as slices of the mapped PACK.
+ *
+ *  @author KAUNG SI THU
+ */
+class PackFile {
+
+    /********************************************************************************
+     *                     The File Pointers Relating to the Pack                   *
+     ********************************************************************************/
+
+    static final String PACK_FOLDER_NAME = "pack";
+    static final String PACK_NAME = "PACK";
+    static final String INDEX_NAME = "INDEX";
+
+    /** Magic numbers and format version at the start of PACK and INDEX. */
+    private static final int PACK_MAGIC = 0x4750414B;   // "GPAK"
+    private static final int INDEX_MAGIC = 0x47494458;  // "GIDX"
+    private static final int VERSION = 1;
+
+    /** Byte sizes of the raw hash, the headers and the records. */
+    private static final int HASH_LENGTH = UID_RAW_LENGTH;
+    private static final int INDEX_HEADER_LENGTH = 12;
+    private static final int INDEX_RECORD_LENGTH = HASH_LENGTH + 8 + 8;
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Instance Variables                                *
+     ********************************************************************************/
+
+    /** The packs mapped so far by this process, keyed by their object folder. */
+    private static final Map<File, PackFile> OPENED = new HashMap<>();
+
+    /** The mapped INDEX of this pack. */
+    private final MappedByteBuffer index;
+
+    /** The mapped PACK, null if it is too large for a single mapping. */
+    private final MappedByteBuffer data;
+
+    /** The channel of PACK, used to map objects when PACK itself is not mapped. */
+    private final FileChannel dataChannel;
+
+    /** The number of objects in this pack. */
+    private final int count;
+
+    /** The last modified time of INDEX when it was mapped. */
+    private final long indexModified;
+
+
+
+
+
+
+    /********************************************************************************
+     *                         Constructors of the PackFile Class                   *
+     ********************************************************************************/
+
+    /**
+     * Map the INDEX and PACK of FOLDER into memory.
+     * @param folder the object folder holding the pack/ folder
+     */
+    private PackFile(File folder) throws IOException {
+        File idx = indexFile(folder);
+        indexModified = idx.lastModified();
+        try (FileChannel channel = FileChannel.open(idx.toPath(), StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+            throw error("Corrupted pack index.");
+        }
+        count = index.getInt(8);
+
+        dataChannel = FileChannel.open(packFile(folder).toPath(), StandardOpenOption.READ);
+        if (dataChannel.size() <= Integer.MAX_VALUE) {
+            data = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataChannel.size());
+        } else {
+            data = null;
+        }
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                       Methods to Read Objects in the Pack                    *
+     ********************************************************************************/
+
+    /**
+     * Return a read-only view of the object with the given hash in the pack of FOLDER.
+     * The view is a slice of the mapped PACK, so no bytes are copied. Objects larger
+     * than a single mapping can only be read through openStream.
+     * @param folder the object folder (.gitlet/blobs or .gitlet/commits)
+     * @param hash the hash of the requested object
+     * @return the saved bytes of the object, null if it is not in the pack.
+     */
+    static ByteBuffer read(File folder, String hash) {
+        PackFile pack = open(folder);
+        long[] location = locate(pack, hash);
+        if (location == null) {
+            return null;
+        }
+        return pack.slice(location[0], location[1]);
+    }
+
+    /**
+     * Open the object with the given hash in the pack of FOLDER as a stream.
+     * @param folder the object folder (.gitlet/blobs or .gitlet/commits)
+     * @param hash the hash of the requested object
+     * @return a stream of the saved bytes of the object, null if it is not in the pack.
+     */
+    static InputStream openStream(File folder, String hash) {
+        PackFile pack = open(folder);
+        long[] location = locate(pack, hash);
+        if (location == null) {
+            return null;
+        }
+        if (location[1] <= Integer.MAX_VALUE) {
+            return new ByteBufferInputStream(pack.slice(location[0], location[1]));
+        }
+        return new RegionInputStream(pack.dataChannel, location[0], location[1]);
+    }
+
+    /**
+     * Return if the object with the given hash is in the pack of FOLDER.
+     * @param folder the object folder
+     * @param hash the hash of the object in question
+     * @return true if the object is packed, false otherwise.
+     */
+    static boolean contains(File folder, String hash) {
+        PackFile pack = open(folder);
+        return pack != null && pack.find(rawHash(hash)) >= 0;
+    }
+
+    /**
+     * Return the hashes of all objects in the pack of FOLDER, in lexicographic order.
+     * @param folder the object folder
+     * @return the sorted list of packed hashes, empty if there is no pack.
+     */
+    static List<String> ids(File folder) {
+        return ids(folder, "");
+    }
+
+    /**
+     * Return the hashes of the objects in the pack of FOLDER that start with PREFIX,
+     * in lexicographic order. The first of them is found with a binary search of
+     * INDEX, and only the records from there on that match are read.
+     * @param folder the object folder
+     * @param prefix the first hexadecimal digits of the hashes, empty for every object
+     * @return the sorted list of matching packed hashes, empty if there is no pack.
+     */
+    static List<String> ids(File folder, String prefix) {
+        List<String> result = new ArrayList<>();
+        PackFile pack = open(folder);
+        if (pack == null) {
+            return result;
+        }
+
+        String lowest = prefix + "0".repeat(UID_LENGTH - prefix.length());
+        byte[] rawHash = new byte[HASH_LENGTH];
+        for (int i = pack.lowerBound(rawHash(lowest)); i < pack.count; i += 1) {
+            pack.index.get(INDEX_HEADER_LENGTH + i * INDEX_RECORD_LENGTH, rawHash);
+            String hash = hexHash(rawHash);
+            if (!hash.startsWith(prefix)) {
+                break;
+            }
+            result.add(hash);
+        }
+        return result;
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                        Methods that Transform the Pack                       *
+     ********************************************************************************/
+
+    /**
+     * Move every loose object of FOLDER into its pack. New objects are appended to
+     * PACK, then INDEX is rewritten and swapped in, and only then are the loose files
+     * deleted, so an interrupted pack never loses an object.
+     * @param folder the object folder to pack
+     * @return the number of loose objects moved into the pack
+     */
+    static int pack(File folder) {
+        List<String> looseHashes = FileObjectStore.looseObjectIds(folder);
+        if (looseHashes.isEmpty()) {
+            return 0;
+        }
+
+        File packFolder = join(folder, PACK_FOLDER_NAME);
+        packFolder.mkdir();
+        TreeMap<byte[], long[]> entries = readIndex(folder);
+        File pack = packFile(folder);
+
+        try (RandomAccessFile data = new RandomAccessFile(pack, "rw")) {
+            if (data.length() == 0) {
+                data.writeInt(PACK_MAGIC);
+                data.writeInt(VERSION);
+            }
+            data.seek(data.length());
+            for (String hash : looseHashes) {
+                byte[] rawHash = rawHash(hash);
+                if (entries.containsKey(rawHash)) {
+                    continue;
+                }
+                try (FileChannel loose = FileChannel.open(
+                        FileObjectStore.looseObject(folder, hash).toPath(), StandardOpenOption.READ)) {
+                    long length = loose.size();
+                    data.write(rawHash);
+                    data.writeLong(length);
+                    long offset = data.getFilePointer();
+                    for (long done = 0; done < length; ) {
+                        done += loose.transferTo(done, length - done, data.getChannel());
+                    }
+                    data.seek(offset + length);
+                    entries.put(rawHash, new long[] {offset, length});
+                }
+            }
+            data.getFD().sync();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        close(folder);
+        writeIndex(folder, entries);
+
+        for (String hash : looseHashes) {
+            File loose = FileObjectStore.looseObject(folder, hash);
+            loose.delete();
+            loose.getParentFile().delete();
+        }
+        return looseHashes.size();
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    private static File packFile(File folder) {
+        return join(folder, PACK_FOLDER_NAME, PACK_NAME);
+    }
+
+    private static File indexFile(File folder) {
+        return join(folder, PACK_FOLDER_NAME, INDEX_NAME);
+    }
+
+    /**
+     * Return the mapped pack of FOLDER, mapping it on first use or when INDEX was
+     * rewritten since it was mapped.
+     * @return the pack of FOLDER, null if FOLDER has no pack.
+     */
+    private static PackFile open(File folder) {
+        File idx = indexFile(folder);
+        PackFile pack = OPENED.get(folder);
+        if (pack != null && pack.indexModified == idx.lastModified()) {
+            return pack;
+        }
+
+        close(folder);
+        if (!idx.exists()) {
+            return null;
+        }
+        try {
+            pack = new PackFile(folder);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        OPENED.put(folder, pack);
+        return pack;
+    }
+
+    /** Forget the mapping of the pack of FOLDER, if it was mapped. */
+    private static void close(File folder) {
+        PackFile pack = OPENED.remove(folder);
+        if (pack == null) {
+            return;
+        }
+        try {
+            pack.dataChannel.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the {offset, length} of the object with the given hash in PACK.
+     * @return the location of the object, null if PACK is null or lacks the object.
+     */
+    private static long[] locate(PackFile pack, String hash) {
+        if (pack == null) {
+            return null;
+        }
+        int record = pack.find(rawHash(hash));
+        if (record < 0) {
+            return null;
+        }
+        return new long[] {pack.index.getLong(record + HASH_LENGTH),
+            pack.index.getLong(record + HASH_LENGTH + 8)};
+    }
+
+    /** Return a read-only view of LENGTH bytes of PACK starting at OFFSET. */
+    private ByteBuffer slice(long offset, long length) {
+        if (data != null) {
+            return data.slice((int) offset, (int) length).asReadOnlyBuffer();
+        }
+        try {
+            return dataChannel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** An InputStream over a region of a file, read with positional reads. */
+    private static class RegionInputStream extends InputStream {
+
+        /** The channel of the file being read. */
+        private final FileChannel channel;
+
+        /** The file position of the next byte and the end of the region. */
+        private long position;
+        private final long end;
+
+        RegionInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int n = (int) Math.min(len, end - position);
+            n = channel.read(ByteBuffer.wrap(b, off, n), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Binary search the sorted records of the mapped INDEX for the first record at
+     * or after RAWHASH.
+     * @return the number of the record, count if every record is before RAWHASH.
+     */
+    private int lowerBound(byte[] rawHash) {
+        byte[] probe = new byte[HASH_LENGTH];
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            index.get(INDEX_HEADER_LENGTH + mid * INDEX_RECORD_LENGTH, probe);
+            if (Arrays.compareUnsigned(probe, rawHash) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Binary search the sorted records of the mapped INDEX for RAWHASH.
+     * @return the position of the matching record in INDEX, -1 if there is none.
+     */
+    private int find(byte[] rawHash) {
+        byte[] probe = new byte[HASH_LENGTH];
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int record = INDEX_HEADER_LENGTH + mid * INDEX_RECORD_LENGTH;
+            index.get(record, probe);
+            int cmp = Arrays.compareUnsigned(probe, rawHash);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read the whole INDEX of FOLDER as a raw-hash keyed map of {offset, length}.
+     * @return the index entries, empty if there is no pack.
+     */
+    private static TreeMap<byte[], long[]> readIndex(File folder) {
+        TreeMap<byte[], long[]> entries = new TreeMap<>(Arrays::compareUnsigned);
+        PackFile pack = open(folder);
+        if (pack == null) {
+            return entries;
+        }
+
+        for (int i = 0; i < pack.count; i += 1) {
+            int record = INDEX_HEADER_LENGTH + i * INDEX_RECORD_LENGTH;
+            byte[] rawHash = new byte[HASH_LENGTH];
+            pack.index.get(record, rawHash);
+            entries.put(rawHash, new long[] {pack.index.getLong(record + HASH_LENGTH),
+                pack.index.getLong(record + HASH_LENGTH + 8)});
+        }
+        return entries;
+    }
+
+    /**
+     * Write INDEX of FOLDER from the sorted entries, replacing the old one atomically.
+     */
+    private static void writeIndex(File folder, TreeMap<byte[], long[]> entries) {
+        File f = indexFile(folder);
+        File tmp = join(folder, PACK_FOLDER_NAME, INDEX_NAME + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<byte[], long[]> entry : entries.entrySet()) {
+                out.write(entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        try {
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package src;
+
+import java.io.File;
+import java.util.*;
+
+/** The branches of the repositories, read once per command and written back once.
+ *
+ * The refs of a BRANCHES file (.gitlet/BRANCHES, or the one of a remote) are read
+ * through a RefTable, which is opened the first time a command asks for them and
+ * kept. It is opened again only if BRANCHES or its log changed since. Changes are
+ * kept aside as updates on top of the table; Main appends every file's updates to
+ * its log with flush once the command is done, compacting the log when it has
+ * grown enough.
+ *
+ *  @author KAUNG SI THU
+ */
+class RefSnapshot {
+
+    /** The refs read from a BRANCHES file, and the updates made to them since. */
+    private static final class Snapshot {
+        private RefTable table;
+        private final TreeMap<String, String> updates = new TreeMap<>();
+    }
+
+    /** The snapshot of each BRANCHES file read so far, by file. */
+    private static final Map<File, Snapshot> SNAPSHOTS = new HashMap<>();
+
+
+
+
+
+
+    /********************************************************************************
+     *                         Methods to Use the Snapshots                         *
+     ********************************************************************************/
+
+    /**
+     * Return the commit the branch NAME of F points to.
+     * @param f the BRANCHES file
+     * @param name the name of the branch
+     * @return the hashed commit of the branch, null if there is no such branch.
+     */
+    static String get(File f, String name) {
+        Snapshot snapshot = snapshot(f);
+        if (snapshot.updates.containsKey(name)) {
+            return snapshot.updates.get(name);
+        }
+        return snapshot.table.get(name);
+    }
+
+    /**
+     * Return the branches of F whose name starts with PREFIX.
+     * @param f the BRANCHES file
+     * @param prefix the first characters of the names, empty for every branch
+     * @return the (branch name, hashed commit) pairs, sorted by name
+     */
+    static TreeMap<String, String> scan(File f, String prefix) {
+        Snapshot snapshot = snapshot(f);
+        TreeMap<String, String> result = snapshot.table.scan(prefix);
+        for (Map.Entry<String, String> update : snapshot.updates.tailMap(prefix).entrySet()) {
+            if (!update.getKey().startsWith(prefix)) {
+                break;
+            }
+            if (update.getValue() == null) {
+                result.remove(update.getKey());
+            } else {
+                result.put(update.getKey(), update.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Point the branch NAME of F at HASH, to be written back by flush.
+     * @param f the BRANCHES file
+     * @param name the name of the branch
+     * @param hash the hashed commit of the branch, null to delete it
+     */
+    static void put(File f, String name, String hash) {
+        snapshot(f).updates.put(name, hash);
+    }
+
+    /**
+     * Append the updates of every snapshot to the log of its BRANCHES file.
+     */
+    static void flush() {
+        for (Map.Entry<File, Snapshot> entry : SNAPSHOTS.entrySet()) {
+            File f = entry.getKey();
+            if (entry.getValue().updates.isEmpty()) {
+                continue;
+            }
+
+            Snapshot snapshot = snapshot(f);
+            TreeMap<String, String> updates = new TreeMap<>(snapshot.updates);
+            snapshot.updates.clear();
+            snapshot.table.append(f, updates);
+            if (snapshot.table.needsCompaction()) {
+                snapshot.table.compact(f);
+                snapshot.table = RefTable.open(f);
+            }
+        }
+    }
+
+    /** Forget every snapshot, without writing the updates back. */
+    static void clear() {
+        SNAPSHOTS.clear();
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /** Return the snapshot of F, opening its table again if the files changed. */
+    private static Snapshot snapshot(File f) {
+        Snapshot snapshot = SNAPSHOTS.computeIfAbsent(f, k -> new Snapshot());
+        if (snapshot.table == null || !snapshot.table.isCurrent(f)) {
+            snapshot.table = RefTable.open(f);
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,444 @@
+package src;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static src.Utils.*;
+
+/** The branches of a Commit Tree, as kept in its BRANCHES and BRANCHES_LOG files.
+ *
+ * BRANCHES -- the refs sorted by name, cut into blocks of about BLOCK_SIZE bytes:
+ *             a header [magic][version][ref count], the blocks of records
+ *             [2-byte name length][UTF-8 name][20-byte raw hash], the offset of
+ *             every block, and a footer [block count][offset of the block offsets].
+ *             A ref is found by a binary search over the first name of each block
+ *             and a scan of one block, and the refs starting with a prefix by a
+ *             scan from the block of the prefix on, so only the blocks touched are
+ *             ever decoded. The file is read into memory rather than mapped, as
+ *             compacting replaces it within the same command, which some systems
+ *             (Windows) refuse to do to a mapped file.
+ * BRANCHES_LOG -- the updates made since BRANCHES was written, appended as records
+ *             [op][2-byte name length][UTF-8 name], followed by the 20-byte raw hash
+ *             if op is PUT. The later record of a name wins over the earlier ones,
+ *             and any record over BRANCHES.
+ *
+ * Creating, moving or deleting a branch thus appends one record instead of
+ * rewriting every branch. Once the log grows past a fraction of the table, compact
+ * merges it into a new BRANCHES and empties it (see RefSnapshot.flush).
+ *
+ *  @author KAUNG SI THU
+ */
+class RefTable {
+
+    /** The suffix of the log file next to a BRANCHES file. */
+    static final String LOG_SUFFIX = "_LOG";
+
+    /** Magic number and format version at the start of BRANCHES. */
+    private static final int MAGIC = 0x47524546;   // "GREF"
+    private static final int VERSION = 1;
+
+    /** The byte size a block is filled up to, and of the header and the footer. */
+    private static final int BLOCK_SIZE = 4096;
+    private static final int HEADER_LENGTH = 12;
+    private static final int FOOTER_LENGTH = 8;
+
+    /** The ops of the log records. */
+    private static final int PUT = 0;
+    private static final int DELETE = 1;
+
+    /** The log is compacted once it has more than COMPACT_MIN records and more than
+     *  one record per COMPACT_RATIO refs in the table, so compacting stays a small
+     *  share of the updates however many branches there are. */
+    private static final int COMPACT_MIN = 128;
+    private static final int COMPACT_RATIO = 8;
+
+
+
+    /* Instance Variables */
+    /** The contents of BRANCHES, null if it is empty or does not exist. */
+    private final ByteBuffer table;
+
+    /** The number of refs and of blocks in the table, and where the offsets are. */
+    private final int count;
+    private final int blocks;
+    private final int blockOffsets;
+
+    /** The updates in the log, by name; a null value is a deleted ref. */
+    private final TreeMap<String, String> log = new TreeMap<>();
+
+    /** The number of records in the log, and the length of its whole records. */
+    private int logRecords = 0;
+    private long logLength = 0;
+
+    /** The state of the files when they were read, to tell if they changed since. */
+    private final long tableModified;
+    private final long tableLength;
+
+    /**
+     * Read the table in F and its log.
+     * @param f the BRANCHES file
+     */
+    private RefTable(File f) throws IOException {
+        tableModified = f.lastModified();
+        tableLength = f.length();
+        if (tableLength == 0) {
+            table = null;
+            count = 0;
+            blocks = 0;
+            blockOffsets = 0;
+        } else {
+            table = ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+            if (tableLength < HEADER_LENGTH + FOOTER_LENGTH
+                || table.getInt(0) != MAGIC || table.getInt(4) != VERSION) {
+                throw error("Corrupted branches.");
+            }
+            count = table.getInt(8);
+            blocks = table.getInt((int) tableLength - FOOTER_LENGTH);
+            blockOffsets = table.getInt((int) tableLength - FOOTER_LENGTH + 4);
+        }
+        readLog(logFile(f));
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                          Methods to Read the Refs                            *
+     ********************************************************************************/
+
+    /**
+     * Read the refs of the BRANCHES file F.
+     * @param f the BRANCHES file
+     * @return the refs of the file
+     */
+    static RefTable open(File f) {
+        try {
+            return new RefTable(f);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the commit the ref NAME points to.
+     * @param name the name of the branch
+     * @return the hashed commit of the branch, null if there is no such branch.
+     */
+    String get(String name) {
+        if (log.containsKey(name)) {
+            return log.get(name);
+        }
+
+        int block = findBlock(name);
+        if (block < 0) {
+            return null;
+        }
+        int position = blockStart(block);
+        int end = blockEnd(block);
+        while (position < end) {
+            String recordName = nameAt(position);
+            int cmp = recordName.compareTo(name);
+            if (cmp == 0) {
+                return hashAt(position);
+            } else if (cmp > 0) {
+                return null;
+            }
+            position = nextRecord(position);
+        }
+        return null;
+    }
+
+    /**
+     * Return the refs whose name starts with PREFIX.
+     * @param prefix the first characters of the names, empty for every ref
+     * @return the (branch name, hashed commit) pairs, sorted by name
+     */
+    TreeMap<String, String> scan(String prefix) {
+        TreeMap<String, String> result = new TreeMap<>();
+        int block = Math.max(findBlock(prefix), 0);
+        for (; block < blocks; block += 1) {
+            int position = blockStart(block);
+            int end = blockEnd(block);
+            for (; position < end; position = nextRecord(position)) {
+                String name = nameAt(position);
+                if (name.startsWith(prefix)) {
+                    result.put(name, hashAt(position));
+                } else if (name.compareTo(prefix) > 0) {
+                    block = blocks;
+                    break;
+                }
+            }
+        }
+
+        for (Map.Entry<String, String> entry : log.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            if (entry.getValue() == null) {
+                result.remove(entry.getKey());
+            } else {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return if the files of the table in F are as they were when it was read.
+     * @param f the BRANCHES file
+     * @return true if neither BRANCHES nor its log changed since
+     */
+    boolean isCurrent(File f) {
+        return f.lastModified() == tableModified && f.length() == tableLength
+            && logFile(f).length() == logLength;
+    }
+
+    /**
+     * Return if the log has grown enough to be compacted.
+     * @return true if the log should be merged into the table
+     */
+    boolean needsCompaction() {
+        return logRecords > COMPACT_MIN && logRecords > count / COMPACT_RATIO;
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                          Methods to Write the Refs                           *
+     ********************************************************************************/
+
+    /**
+     * Append the updates to the log of F, which this table was read from, and apply
+     * them to this table. Any bytes after the last whole record of the log are
+     * discarded first, e.g. a record half-written by an interrupted command.
+     * @param f the BRANCHES file
+     * @param updates the new hashed commit of each updated branch, null if deleted
+     */
+    void append(File f, SortedMap<String, String> updates) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Map.Entry<String, String> update : updates.entrySet()) {
+                out.writeByte(update.getValue() == null ? DELETE : PUT);
+                writeName(out, update.getKey());
+                if (update.getValue() != null) {
+                    out.write(rawHash(update.getValue()));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        File logFile = logFile(f);
+        try (RandomAccessFile out = new RandomAccessFile(logFile, "rw")) {
+            out.setLength(logLength);
+            out.seek(logLength);
+            out.write(bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        log.putAll(updates);
+        logRecords += updates.size();
+        logLength = logFile.length();
+    }
+
+    /**
+     * Merge the log of F, which this table was read from, into a new table and empty
+     * the log. The new table is moved in atomically before the log is deleted; as the
+     * records of the log only set refs to given values, a log left over by an
+     * interruption can be merged again.
+     * @param f the BRANCHES file
+     */
+    void compact(File f) {
+        write(f, scan(""));
+        try {
+            Files.deleteIfExists(logFile(f).toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write REFS as the table in F, replacing it atomically. The log is left as it is.
+     * @param f the BRANCHES file
+     * @param refs the (branch name, hashed commit) pairs, sorted by name
+     */
+    static void write(File f, SortedMap<String, String> refs) {
+        File tmp = join(f.getParentFile(), f.getName() + ".tmp");
+        List<Integer> offsets = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(refs.size());
+
+            int blockStart = -BLOCK_SIZE;
+            for (Map.Entry<String, String> ref : refs.entrySet()) {
+                int length = 2 + ref.getKey().getBytes(StandardCharsets.UTF_8).length
+                    + UID_RAW_LENGTH;
+                if (out.size() + length - blockStart > BLOCK_SIZE) {
+                    blockStart = out.size();
+                    offsets.add(blockStart);
+                }
+                writeName(out, ref.getKey());
+                out.write(rawHash(ref.getValue()));
+            }
+
+            int blockOffsets = out.size();
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            out.writeInt(offsets.size());
+            out.writeInt(blockOffsets);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        try {
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the log file of the BRANCHES file F.
+     * @param f the BRANCHES file
+     * @return the BRANCHES_LOG file next to it
+     */
+    static File logFile(File f) {
+        return join(f.getParentFile(), f.getName() + LOG_SUFFIX);
+    }
+
+    /**
+     * Return if F holds a table, rather than the serialized map of older layouts.
+     * @param f the BRANCHES file
+     * @return true if F is empty or starts with the magic number of a table
+     */
+    static boolean isTable(File f) {
+        if (f.length() == 0) {
+            return true;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(f.toPath()))) {
+            return f.length() >= 4 && in.readInt() == MAGIC;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /** Read the whole records of the log into LOG, ignoring a torn last record. */
+    private void readLog(File f) throws IOException {
+        if (!f.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(Files.readAllBytes(f.toPath())));
+        int remaining = in.available();
+        try {
+            while (in.available() > 0) {
+                int op = in.readUnsignedByte();
+                String name = readName(in);
+                if (op == PUT) {
+                    byte[] hash = new byte[UID_RAW_LENGTH];
+                    in.readFully(hash);
+                    log.put(name, hexHash(hash));
+                } else if (op == DELETE) {
+                    log.put(name, null);
+                } else {
+                    break;
+                }
+                logRecords += 1;
+                logLength = remaining - in.available();
+            }
+        } catch (EOFException excp) {
+            return;
+        }
+    }
+
+    /**
+     * Return the last block whose first name is at most NAME.
+     * @return the index of the block, -1 if NAME comes before every block.
+     */
+    private int findBlock(String name) {
+        int low = 0;
+        int high = blocks - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (nameAt(blockStart(mid)).compareTo(name) <= 0) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    private int blockStart(int block) {
+        return table.getInt(blockOffsets + 4 * block);
+    }
+
+    private int blockEnd(int block) {
+        return block + 1 < blocks ? blockStart(block + 1) : blockOffsets;
+    }
+
+    private String nameAt(int position) {
+        byte[] name = new byte[table.getShort(position) & 0xffff];
+        table.get(position + 2, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private String hashAt(int position) {
+        byte[] hash = new byte[UID_RAW_LENGTH];
+        table.get(position + 2 + (table.getShort(position) & 0xffff), hash);
+        return hexHash(hash);
+    }
+
+    private int nextRecord(int position) {
+        return position + 2 + (table.getShort(position) & 0xffff) + UID_RAW_LENGTH;
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw error("Branch name is too long.");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readName(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -113,8 +113,8 @@ class RemoteTree {
 
     /**
      * Return the commit object read from the file name in .gitlet/commits folder.
-     * The file name can also be the shorter version of first 7 characters of the
-     * real file name.
+     * The file name can also be any prefix of the real file name that no other
+     * commit starts with.
      * Return null if no such file is found.
      *
      * @param hashedCommit : The file name of the serialized commit in .gitlet/commits folder.
@@ -125,6 +125,15 @@ class RemoteTree {
         return CommitTree.retrieveCommit(hashedCommit, IS_REMOTE);
     }
 
+    /**
+     * Return the full hash of the commit whose hash starts with PREFIX.
+     * @param prefix the first hexadecimal digits of the hash
+     * @return the full hash of the commit, null if no commit starts with the prefix.
+     */
+    static String resolveCommitId(String prefix) {
+        return CommitTree.resolveCommitId(prefix, IS_REMOTE);
+    }
+
     /**
      * Return if a specific version of the file is in the current working commit.
      *
@@ -237,7 +246,7 @@ class RemoteTree {
         return CommitTree.getNonRepeatingAncestors(hashedCommit, IS_REMOTE);
     }
 
-    static Set<String> getAncestors(String hashedCommit) {
+    static Set<ObjectId> getAncestors(String hashedCommit) {
         return CommitTree.getAncestors(hashedCommit, IS_REMOTE);
     }
     */
@@ -302,13 +311,10 @@ class RemoteTree {
      *
      * @return Commit Object that the head pointer is pointing to, null if fails to retrieve
      */
-    /*
     static Commit readHeadCommit() {
         return CommitTree.readHeadCommit(IS_REMOTE);
     }
 
-     */
-
     /**
      * Read (branch name, hashed commit) map from .gitlet/BRANCHES file.
      *
@@ -4,6 +4,10 @@ package src;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 
 import static src.Utils.*;
 
@@ -14,9 +18,23 @@ import static src.Utils.*;
  *
  * .gitlet/ -- top level folder for all persistent data
  *    - commits/ -- folder containing all of the persistent data for commits
- *    - fileBlobs/ -- folder contianing all of the persistent data for fileBlobs
+ *    - fileBlobs/ -- folder contianing all of the persistent data for fileBlobs, and
+ *                    the nodes of the file manifests of the commits (see Manifest)
  *    - head -- file that saves the hash code of the commit node that header points to.
  *    - stage -- file that saves the staging area.
+ *
+ * Files in subdirectories of the working directory are tracked by their path,
+ * e.g. "docs/notes.txt", with "/" separating the directories on every system
+ * (see workingPath and Manifest).
+ *
+ * The objects in commits/ and fileBlobs/ are read and written through the object
+ * stores of the repository (see FileObjectStore), which fan loose objects out into
+ * sub-folders named after the first two digits of their hash and may also keep
+ * packed objects in a pack/ folder (see PackFile).
+ *    - BRANCHES, BRANCHES_LOG -- files that save the branches (see RefTable).
+ *    - COMMIT_GRAPH, COMMIT_GRAPH_LOG -- files that save the parents of the commits
+ *      (see CommitGraph).
+ *    - VERSION -- file that saves the version of this layout (see upgrade).
  */
 public class Repository {
     /**
@@ -34,6 +52,14 @@ public class Repository {
     static final String CWB_NAME = "CWB";
     static final String BRANCHES_NAME = "BRANCHES";
     static final String REMOTE_NAME = "remote";
+    static final String VERSION_NAME = "VERSION";
+    static final String COMMIT_GRAPH_NAME = "COMMIT_GRAPH";
+
+    /** The version of the .gitlet layout written by this code. Version 0 kept the
+     *  loose objects directly in the object folders, version 1 fans them out,
+     *  version 2 keeps the branches in a RefTable rather than a serialized map, and
+     *  version 3 has no serialized commits or blobs left (see LegacyObjects). */
+    static final int LAYOUT_VERSION = 3;
     // static final String INIT_NAME = "INIT";
     /********************************************************************************
      *                         Current Working Repository                           *
@@ -48,6 +74,8 @@ public class Repository {
     static final File CWB = join(GITLET_DIR, CWB_NAME);
     static final File BRANCHES = join(GITLET_DIR, BRANCHES_NAME);
     static final File REMOTE = join(GITLET_DIR, REMOTE_NAME);
+    static final File VERSION = join(GITLET_DIR, VERSION_NAME);
+    static final File COMMIT_GRAPH = join(GITLET_DIR, COMMIT_GRAPH_NAME);
     // static final File INIT = join(GITLET_DIR, INIT_NAME);
 
 
@@ -66,6 +94,24 @@ public class Repository {
     // static File REMOTE_INIT;
 
 
+    /********************************************************************************
+     *                               Object Stores                                  *
+     ********************************************************************************/
+    private static ObjectStore commitStore = new FileObjectStore(COMMITS_FOLDER);
+    private static ObjectStore blobStore = new FileObjectStore(BLOBS_FOLDER);
+    private static ObjectStore remoteCommitStore;
+    private static ObjectStore remoteBlobStore;
+
+    /**
+     * Point the remote object stores at the object folders of the remote repository,
+     * once REMOTE_COMMITS_FOLDER and REMOTE_BLOBS_FOLDER are assigned.
+     */
+    static void assignRemoteStores() {
+        remoteCommitStore = new FileObjectStore(REMOTE_COMMITS_FOLDER);
+        remoteBlobStore = new FileObjectStore(REMOTE_BLOBS_FOLDER);
+    }
+
+
 
     // Reminder : Make every .gitlet things under this class
 
@@ -78,55 +124,124 @@ public class Repository {
         HEAD.createNewFile();
         BRANCHES.createNewFile();
         CWB.createNewFile();
+        writeContents(VERSION, String.valueOf(LAYOUT_VERSION));
     }
 
 
     /**
-     * Return if the working dir file has different content from the commit tracking version
-     * @param filename the name of the file whose content is in interest
-     * @param commitFile the file name of saved commit in .gitlet/commits folder
-     * @return true if the file contents are different, false if they are different
-     * or the file doesn't exist in the working directory or in the commit.
+     * Return the path under which the file named by the user is tracked: relative
+     * to the working directory, normalized, and with "/" between the directories.
+     * @param filename the name of the file as given on the command line
+     * @return the tracked path of the file, null if the file is outside of the
+     * working directory or inside the .gitlet folder
      */
-    static boolean isChangedInWorkingDir(String filename, String commitFile) {
-
-        boolean isRemote = false;
-        File cwdFile = join(CWD, filename);
-        if (!cwdFile.exists()) {
-            return false;
+    static String workingPath(String filename) {
+        Path cwd = CWD.toPath().toAbsolutePath().normalize();
+        Path path = cwd.resolve(filename).normalize();
+        if (!path.startsWith(cwd) || path.equals(cwd)
+                || path.startsWith(cwd.resolve(GITLET_NAME))) {
+            return null;
         }
+        return cwd.relativize(path).toString().replace(File.separatorChar, '/');
+    }
 
-        Commit commit = CommitTree.retrieveCommit(commitFile, isRemote);
-        String hashedContent = commit.getFromFileBlob(filename);
+    /**
+     * Return the paths of the plain files in the working directory WORKINGDIR and
+     * its subdirectories, leaving out the .gitlet folder.
+     * @param workingDir the working directory of the local or a remote repository
+     * @return the tracked paths of the files (see workingPath), in path order
+     */
+    static List<String> workingFiles(File workingDir) {
+        List<String> result = new ArrayList<>();
+        collectWorkingFiles(workingDir, "", result);
+        Collections.sort(result);
+        return result;
+    }
 
-        if (hashedContent == null) {
-            return false;
+    /**
+     * Delete the working file at PATH of the working directory WORKINGDIR, and
+     * every directory on its path that is left empty.
+     * @param workingDir the working directory of the local or a remote repository
+     * @param path the tracked path of the file
+     */
+    static void deleteWorkingFile(File workingDir, String path) {
+        if (!join(workingDir, GITLET_NAME).isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File file = join(workingDir, path);
+        if (file.isDirectory() || !file.delete()) {
+            return;
         }
+        Path top = workingDir.toPath().toAbsolutePath().normalize();
+        Path directory = file.toPath().toAbsolutePath().normalize().getParent();
+        while (directory.startsWith(top) && !directory.equals(top)) {
+            String[] left = directory.toFile().list();
+            if (left == null || left.length > 0) {
+                return;
+            }
+            directory.toFile().delete();
+            directory = directory.getParent();
+        }
+    }
 
-        String contentInCommit = Blob.readBlob(hashedContent, isRemote).getContent();
-        String currentContent = readContentsAsString(cwdFile);
-        return !currentContent.equals(contentInCommit);
+    /**
+     * Return the store of the commits of the local or the remote repository.
+     * @return the commit store
+     */
+    static ObjectStore commitStore(boolean isRemote) {
+        return isRemote ? remoteCommitStore : commitStore;
     }
 
     /**
-     * Return if the working dir file has different content from the staged version
-     * @param filename the file name whose content is in interest
-     * @param stgArea the staging area
-     * @return true if the file contents are different, false if they are different
-     * or the file doesn't exist in the working directory or in the staging area.
+     * Return the store of the blobs of the local or the remote repository.
+     * @return the blob store
      */
-    static boolean isChangedInWorkingDir(String filename, StagingArea stgArea) {
-        File cwdFile = join(CWD, filename);
-        if (!cwdFile.exists()) {
-            return false;
-        }
+    static ObjectStore blobStore(boolean isRemote) {
+        return isRemote ? remoteBlobStore : blobStore;
+    }
 
-        if (stgArea.isInStage(filename)) {
-            return false;
-        }
+    /**
+     * Keep the commits and blobs of the local repository in the given stores instead
+     * of its object folders, e.g. the MemoryObjectStores of StoreBench.
+     * @param commits the new commit store
+     * @param blobs the new blob store
+     */
+    static void useStores(ObjectStore commits, ObjectStore blobs) {
+        commitStore = commits;
+        blobStore = blobs;
+    }
+
+    /**
+     * Return the graph of the commits of the local or the remote repository.
+     * @return the commit graph, empty if the repository has none
+     */
+    static CommitGraph commitGraph(boolean isRemote) {
+        return CommitGraph.open(commitGraphFile(isRemote));
+    }
 
-        Blob cwdBlob = new Blob(readContentsAsString(cwdFile));
-        return !stgArea.isVersionInAddStage(filename, cwdBlob.getHashCode());
+    /**
+     * Add a new commit of the local or the remote repository to the log of its
+     * commit graph.
+     * @param hash the hash of the new commit
+     * @param commit the new commit
+     */
+    static void addToCommitGraph(String hash, Commit commit, boolean isRemote) {
+        CommitGraph.add(commitGraphFile(isRemote), ObjectId.fromHex(hash), commit);
+    }
+
+    /** Return the COMMIT_GRAPH file of the local or the remote repository. */
+    private static File commitGraphFile(boolean isRemote) {
+        return isRemote ? join(REMOTE_GITLET_DIR, COMMIT_GRAPH_NAME) : COMMIT_GRAPH;
+    }
+
+    /**
+     * Move the loose objects of both the commits and the blobs folder into packs,
+     * and write the graph of every commit.
+     */
+    static void repack() {
+        PackFile.pack(COMMITS_FOLDER);
+        PackFile.pack(BLOBS_FOLDER);
+        CommitGraph.write(COMMIT_GRAPH, commitStore);
     }
 
 
@@ -134,6 +249,92 @@ public class Repository {
         if (!GITLET_DIR.exists()) {
             throw error("Not in an initialized Gitlet directory.");
         }
+        upgrade(GITLET_DIR, false);
+    }
+
+    /**
+     * Bring the layout of the .gitlet folder up to LAYOUT_VERSION. Repositories
+     * created before the VERSION file existed keep their loose objects directly in
+     * the object folders; those are moved into their fan-out folders. Repositories
+     * before version 2 keep their branches as a serialized map; it is rewritten as
+     * a RefTable. Repositories before version 3 may hold commits and blobs saved
+     * with java.io serialization; those are re-encoded, and HEAD and the branches
+     * moved to the new commit ids (see LegacyObjects). Each step is atomic or can be
+     * done again, and VERSION is written last, so an interrupted upgrade is simply
+     * finished by the next command.
+     * @param gitletDir the .gitlet folder of the local or a remote repository, whose
+     *                  object stores must be assigned
+     */
+    static void upgrade(File gitletDir, boolean isRemote) {
+        File version = join(gitletDir, VERSION_NAME);
+        int current = 0;
+        if (version.exists()) {
+            current = Integer.parseInt(readContentsAsString(version).trim());
+        }
+        if (current >= LAYOUT_VERSION) {
+            return;
+        }
+
+        if (current < 1) {
+            fanOutObjects(gitletDir);
+        }
+        if (current < 2) {
+            File branches = join(gitletDir, BRANCHES_NAME);
+            if (!RefTable.isTable(branches)) {
+                @SuppressWarnings("unchecked")
+                TreeMap<String, String> refs = readObject(branches, TreeMap.class);
+                RefTable.write(branches, refs);
+            }
+        }
+        if (current < 3) {
+            LegacyObjects.reencode(gitletDir, isRemote);
+        }
+        writeContents(version, String.valueOf(LAYOUT_VERSION));
+    }
+
+    /** Add the paths of the plain files in DIRECTORY and below to RESULT, starting
+     *  with PREFIX. */
+    private static void collectWorkingFiles(File directory, String prefix,
+                                            List<String> result) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile()) {
+                result.add(prefix + name);
+            } else if (file.isDirectory() && !(prefix.isEmpty() && name.equals(GITLET_NAME))) {
+                collectWorkingFiles(file, prefix + name + "/", result);
+            }
+        }
+    }
+
+    /**
+     * Move the loose objects kept directly in the object folders of the .gitlet
+     * folder into their fan-out folders.
+     * @param gitletDir the .gitlet folder of the local or a remote repository
+     */
+    private static void fanOutObjects(File gitletDir) {
+        for (String folderName : List.of(COMMITS_FOLDER_NAME, BLOBS_FOLDER_NAME)) {
+            File folder = join(gitletDir, folderName);
+            List<String> names = plainFilenamesIn(folder);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (name.length() != UID_LENGTH) {
+                    continue;
+                }
+                try {
+                    Files.move(join(folder, name).toPath(),
+                            FileObjectStore.newLooseObject(folder, name).toPath(),
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
     }
 
 
@@ -1,14 +1,144 @@
 package src;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 
 import static src.Utils.*;
 
+/** The stages for addition and removal, and the index of the working files.
+ *
+ * The index records, for each working file hashed by a command, the size, last
+ * modified time and file key (the inode on Unix) it had when it was hashed, along
+ * with the hash. A command asking for the hash of a working file whose stat data
+ * did not change since gets the recorded hash without reading the file, so status
+ * and add only read the files that were touched.
+ *
+ * A file changed within the timestamp granularity of the file system after it was
+ * hashed can keep its size and modified time. A hash is thus only trusted if the
+ * file was last modified at least RACY_WINDOW before it was hashed; a file hashed
+ * sooner is hashed again by the next command, until it is old enough.
+ *
+ * The staging area is kept in two files:
+ * STAGE     -- the serialized StagingArea as of its last compaction, whose stages
+ *              and index are sorted by path, and its generation.
+ * STAGE_LOG -- the generation of the STAGE it applies to, as an 8-byte header,
+ *              then the changes made since, appended as records [op][path]
+ *              followed by the raw hash if op is ADD, and by the stat data and the
+ *              raw hash if op is INDEX (see the ops below). CLEAR has no path.
+ * Reading the staging area reads STAGE and replays the log on it; saving it only
+ * appends the records of the changes the command made, so staging a file writes a
+ * few dozen bytes however many files are staged. Once the log grows past a
+ * fraction of the staging area, it is compacted into a new STAGE, written aside
+ * and moved in atomically, and the log is deleted. A record half-written by an
+ * interrupted command is discarded, and overwritten by the next save.
+ *
+ * A log must never be replayed on a STAGE that already holds its changes: a stale
+ * ADD would stage a file again after it was unstaged, and a stale CLEAR would drop
+ * what was staged since. Each compaction therefore counts up the generation kept
+ * in STAGE, and a log whose header holds another generation, left over by a
+ * compaction interrupted between its move and the deletion of the log, is ignored
+ * and overwritten by the next save.
+ *
+ *  @author KAUNG SI THU
+ */
 class StagingArea implements Serializable {
 
+    /** Kept from before the index, so that staging areas saved then still read. */
+    private static final long serialVersionUID = 830289418834867648L;
+
+    /** How long before it is hashed a file must have been last modified for the
+     *  hash to be trusted while its stat data do not change, in milliseconds.
+     *  Coarser than the timestamps of every common file system. */
+    static final long RACY_WINDOW = 2000;
+
+    /** The stat data of a working file when it was hashed, and its hash. */
+    private static final class IndexEntry implements Serializable {
+        /** Fixed to the value computed for the class when it was first saved. */
+        private static final long serialVersionUID = -7660220708660039469L;
+
+        private final long size;
+        private final long modified;
+        private final String fileKey;
+        private final long hashedAt;
+        private final ObjectId hash;
+
+        IndexEntry(BasicFileAttributes stat, long hashedAt, ObjectId hash) {
+            this.size = stat.size();
+            this.modified = stat.lastModifiedTime().toMillis();
+            this.fileKey = String.valueOf(stat.fileKey());
+            this.hashedAt = hashedAt;
+            this.hash = hash;
+        }
+
+        private IndexEntry(long size, long modified, String fileKey, long hashedAt,
+                           ObjectId hash) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.hashedAt = hashedAt;
+            this.hash = hash;
+        }
+
+        /** Write the stat data and the hash of this entry to OUT. */
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeLong(hashedAt);
+            out.writeUTF(fileKey);
+            hash.writeTo(out);
+        }
+
+        /** Read an entry written by writeTo from IN. */
+        static IndexEntry read(DataInputStream in) throws IOException {
+            long size = in.readLong();
+            long modified = in.readLong();
+            long hashedAt = in.readLong();
+            String fileKey = in.readUTF();
+            return new IndexEntry(size, modified, fileKey, hashedAt, ObjectId.read(in));
+        }
+
+        /** Return if the file whose stat data are STAT still has this hash. */
+        boolean matches(BasicFileAttributes stat) {
+            return modified < hashedAt - RACY_WINDOW
+                && size == stat.size()
+                && modified == stat.lastModifiedTime().toMillis()
+                && fileKey.equals(String.valueOf(stat.fileKey()));
+        }
+    }
+
+    /** The suffix of the log file next to a STAGE file. */
+    static final String LOG_SUFFIX = "_LOG";
+
+    /** The ops of the log records. */
+    private static final int ADD = 0;
+    private static final int UNADD = 1;
+    private static final int REMOVE = 2;
+    private static final int UNREMOVE = 3;
+    private static final int CLEAR = 4;
+    private static final int INDEX = 5;
+    private static final int FORGET = 6;
+
+    /** The length of the header of the log, which holds its generation. */
+    private static final int LOG_HEADER_LENGTH = 8;
+
+    /** The log is compacted once it has more than COMPACT_MIN records and more than
+     *  one record per COMPACT_RATIO entries of the staging area, so compacting stays
+     *  a small share of the changes however many files are staged or indexed. */
+    private static final int COMPACT_MIN = 128;
+    private static final int COMPACT_RATIO = 8;
+
     /********************************************************************************
      *               The File Pointers Relating to the Commit Tree                  *
      ********************************************************************************/
@@ -26,12 +156,37 @@ class StagingArea implements Serializable {
      *                            Instance Variables                                *
      ********************************************************************************/
 
-    /** The stage for addition */
-    private Map<String, String> addStage;
+    /** The stage for addition, file-name keyed hashed-content */
+    private Map<String, ObjectId> addStage;
 
     /** The stage for removal */
     private Set<String> removeStage;
 
+    /** The index of the working files, by path; null in a staging area saved
+     *  before there was one, until it is first used. */
+    private TreeMap<String, IndexEntry> index;
+
+    /** The generation of this staging area, counted up each time it is written as
+     *  a new STAGE; 0 in a staging area saved before there was a log. */
+    private long logGeneration;
+
+    /** Whether the index changed since this staging area was read. */
+    private transient boolean indexChanged;
+
+    /** Whether this staging area was read from its files, so that saving it may
+     *  append to its log instead of writing a new STAGE. */
+    private transient boolean isJournaled;
+
+    /** The number of records in the log, and the length of its header and whole
+     *  records; 0 if the log is missing, torn in its header, or stale. */
+    private transient int logRecords;
+    private transient long logLength;
+
+    /** The records of the changes made since this staging area was read or saved,
+     *  and their number. */
+    private transient ByteArrayOutputStream pending;
+    private transient int pendingRecords;
+
 
 
 
@@ -47,6 +202,7 @@ class StagingArea implements Serializable {
     StagingArea() {
         addStage = new TreeMap<>();
         removeStage = new TreeSet<>();
+        index = new TreeMap<>();
     }
 
 
@@ -64,7 +220,15 @@ class StagingArea implements Serializable {
      * @param hashedContent the hashed content of the file
      */
     void addToAddStage(String filename, String hashedContent) {
-        addStage.put(filename, hashedContent);
+        ObjectId hash = ObjectId.fromHex(hashedContent);
+        if (!hash.equals(addStage.put(filename, hash))) {
+            DataOutputStream out = record(ADD, filename);
+            try {
+                hash.writeTo(out);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
     }
 
     /**
@@ -72,7 +236,9 @@ class StagingArea implements Serializable {
      * @param filename the file name being added to stage of removal
      */
     void addToRemoveStage(String filename) {
-        removeStage.add(filename);
+        if (removeStage.add(filename)) {
+            record(REMOVE, filename);
+        }
     }
 
     /**
@@ -80,7 +246,9 @@ class StagingArea implements Serializable {
      * @param filename the name of the removing file
      */
     void deleteFromRemoveStage(String filename) {
-        removeStage.remove(filename);
+        if (removeStage.remove(filename)) {
+            record(UNREMOVE, filename);
+        }
     }
 
     /**
@@ -88,15 +256,20 @@ class StagingArea implements Serializable {
      * @param filename the name of the removing file
      */
     void deleteFromAddStage(String filename) {
-        addStage.remove(filename);
+        if (addStage.remove(filename) != null) {
+            record(UNADD, filename);
+        }
     }
 
     /**
      * Clear the staging area, i.e., both the stage of addition and the removal stage
      */
     void empty() {
-        addStage.clear();
-        removeStage.clear();
+        if (!isEmpty()) {
+            addStage.clear();
+            removeStage.clear();
+            record(CLEAR, null);
+        }
     }
 
 
@@ -116,6 +289,17 @@ class StagingArea implements Serializable {
         return addStage.keySet();
     }
 
+    /**
+     * Return the file names in the stage of addition with their hashed contents.
+     * @return a read-only view of the stage of addition, in file name order
+     */
+    SortedMap<String, ObjectId> getAddStage() {
+        if (addStage instanceof SortedMap) {
+            return Collections.unmodifiableSortedMap((SortedMap<String, ObjectId>) addStage);
+        }
+        return new TreeMap<>(addStage);
+    }
+
     /**
      * Return the file names in the removal stage.
      * @return a list of file names in the removal stage.
@@ -170,7 +354,8 @@ class StagingArea implements Serializable {
      *
      */
     boolean isVersionInAddStage(String filename, String version) {
-        return addStage.containsKey(filename) && addStage.containsValue(version);
+        return addStage.containsKey(filename)
+            && addStage.containsValue(ObjectId.fromHex(version));
     }
 
     /**
@@ -180,7 +365,8 @@ class StagingArea implements Serializable {
      * @return the hashed content of the file, null if there is no such hashed content
      */
     String getFromAddStage(String filename) {
-        return addStage.get(filename);
+        ObjectId hashedContent = addStage.get(filename);
+        return hashedContent == null ? null : hashedContent.toString();
     }
 
     boolean isInStage(String filename) {
@@ -193,27 +379,107 @@ class StagingArea implements Serializable {
 
 
     /********************************************************************************
-     *                    Methods to Save the StagingArea Object                    *
+     *                     Methods to Use the Index of Working Files                *
      ********************************************************************************/
 
     /**
-     * Serialize this StagingArea to .gitlet/STAGE file.
+     * Return the hashes of the working files at PATHS, each recorded in the index if
+     * its stat data did not change since it was hashed, and hashed otherwise, which
+     * is then recorded. The stat data are read before the file is hashed, so a change
+     * while it is hashed is seen by the next command. The files are scanned and
+     * hashed on several threads (see WorkingTree), and recorded on this one.
+     * @param workingDir the working directory holding the files
+     * @param paths the tracked paths of the files
+     * @return the hash of the content of each path, null for the paths that are
+     * not plain files
      */
-    void saveStagingArea(boolean isRemote) {
-        File f;
-        if (isRemote) {
-            f = Repository.REMOTE_STAGE;
-        } else {
-            f = Repository.STAGE;
+    Map<String, String> hashWorkingFiles(File workingDir, Collection<String> paths,
+                                         boolean isRemote) {
+        TreeMap<String, IndexEntry> entries = index();
+        List<String> candidates = new ArrayList<>(paths);
+        List<IndexEntry> scanned = WorkingTree.map(candidates, path -> {
+            File file = join(workingDir, path);
+            BasicFileAttributes stat = WorkingTree.stat(file);
+            if (stat == null || !stat.isRegularFile()) {
+                return null;
+            }
+            IndexEntry entry = entries.get(path);
+            if (entry != null && entry.matches(stat)) {
+                return entry;
+            }
+            long hashedAt = System.currentTimeMillis();
+            return new IndexEntry(stat, hashedAt, ObjectId.fromHex(Blob.hashFile(file)));
+        }, isRemote);
+
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < candidates.size(); i += 1) {
+            String path = candidates.get(i);
+            IndexEntry entry = scanned.get(i);
+            if (entry == null) {
+                forgetWorkingFile(path);
+                result.put(path, null);
+                continue;
+            }
+            if (entries.put(path, entry) != entry) {
+                indexChanged = true;
+                try {
+                    entry.writeTo(record(INDEX, path));
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            result.put(path, entry.hash.toString());
         }
+        return result;
+    }
 
-        try {
-            f.createNewFile();
-        } catch (IOException excp) {
-            throw new IllegalArgumentException(excp.getMessage());
+    /**
+     * Drop the working file at PATH from the index, e.g. once it is deleted.
+     * @param path the tracked path of the file
+     */
+    void forgetWorkingFile(String path) {
+        if (index().remove(path) != null) {
+            indexChanged = true;
+            record(FORGET, path);
         }
+    }
 
-        writeObject(f, this);
+    /**
+     * Return if the index changed since this staging area was read, so that a
+     * command that changes nothing else knows to save it.
+     * @return true if the index changed, false otherwise.
+     */
+    boolean isIndexChanged() {
+        return indexChanged;
+    }
+
+    /** Return the index, made for a staging area saved before there was one. */
+    private TreeMap<String, IndexEntry> index() {
+        if (index == null) {
+            index = new TreeMap<>();
+        }
+        return index;
+    }
+
+    /********************************************************************************
+     *                    Methods to Save the StagingArea Object                    *
+     ********************************************************************************/
+
+    /**
+     * Save the changes made to this StagingArea since it was read, appending them to
+     * the log of the .gitlet/STAGE file, or write this StagingArea as a new STAGE if
+     * it was not read from one or the log has grown enough to be compacted.
+     */
+    void saveStagingArea(boolean isRemote) {
+        File f = stageFile(isRemote);
+        if (!isJournaled || needsCompaction()) {
+            compact(f);
+        } else if (pendingRecords > 0) {
+            append(f);
+        }
+        pending = null;
+        pendingRecords = 0;
+        indexChanged = false;
     }
 
 
@@ -222,7 +488,7 @@ class StagingArea implements Serializable {
 
 
     /**
-     * Deserialize the StagingArea object from STAGE file
+     * Read the StagingArea from the STAGE file and replay its log on it.
      * @return the StagingArea object after deserializing the file in corresponding path,
      * null if failed.
      */
@@ -231,17 +497,162 @@ class StagingArea implements Serializable {
      *                     Methods to Read the Commit Object                        *
      ********************************************************************************/
     static StagingArea readStagingArea(boolean isRemote) {
-        File f;
-        if (isRemote) {
-            f = Repository.REMOTE_STAGE;
-        } else {
-            f = Repository.STAGE;
-        }
-
+        File f = stageFile(isRemote);
         if (!f.exists()) {
             return null;
         }
 
-        return readObject(f, StagingArea.class);
+        StagingArea stage = Utils.readObject(f, StagingArea.class);
+        stage.replayLog(logFile(f));
+        stage.isJournaled = true;
+        return stage;
+    }
+
+    /** Read a serialized StagingArea. Staging areas saved before hashes were kept as
+     *  ObjectIds hold the hexadecimal hashes in the stage for addition, which are
+     *  converted here. */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        Map<String, ?> saved = addStage;
+        TreeMap<String, ObjectId> converted = new TreeMap<>();
+        for (Map.Entry<String, ?> entry : saved.entrySet()) {
+            Object hash = entry.getValue();
+            converted.put(entry.getKey(), hash instanceof String
+                    ? ObjectId.fromHex((String) hash) : (ObjectId) hash);
+        }
+        addStage = converted;
+        removeStage = new TreeSet<>(removeStage);
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /** Return the STAGE file of the local or the remote repository. */
+    private static File stageFile(boolean isRemote) {
+        return isRemote ? Repository.REMOTE_STAGE : Repository.STAGE;
+    }
+
+    /** Return the log file of the STAGE file F. */
+    private static File logFile(File f) {
+        return join(f.getParentFile(), f.getName() + LOG_SUFFIX);
+    }
+
+    /** Start a record of OP on PATH among the pending records, and return the stream
+     *  the rest of the record, if any, is written to. PATH is null for CLEAR. */
+    private DataOutputStream record(int op, String path) {
+        if (pending == null) {
+            pending = new ByteArrayOutputStream();
+        }
+        DataOutputStream out = new DataOutputStream(pending);
+        try {
+            out.writeByte(op);
+            if (path != null) {
+                out.writeUTF(path);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        pendingRecords += 1;
+        return out;
+    }
+
+    /** Return if the log, with the pending records, has grown enough to be compacted. */
+    private boolean needsCompaction() {
+        int records = logRecords + pendingRecords;
+        int entries = addStage.size() + removeStage.size() + index().size();
+        return records > COMPACT_MIN && records > entries / COMPACT_RATIO;
+    }
+
+    /** Append the pending records to the log of F, discarding any bytes after the
+     *  last whole record first, e.g. a record half-written by an interrupted command.
+     *  A log that was missing, torn or stale is started over with a new header. */
+    private void append(File f) {
+        File log = logFile(f);
+        try (RandomAccessFile out = new RandomAccessFile(log, "rw")) {
+            out.setLength(logLength);
+            out.seek(logLength);
+            if (logLength == 0) {
+                out.writeLong(logGeneration);
+            }
+            out.write(pending.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        logRecords += pendingRecords;
+        logLength = log.length();
+    }
+
+    /** Write this StagingArea as the new STAGE file F of the next generation,
+     *  replacing it atomically, and delete its log. The log of a STAGE this staging
+     *  area was not read from is deleted first, as its generation is unknown. */
+    private void compact(File f) {
+        File tmp = join(f.getParentFile(), f.getName() + ".tmp");
+        logGeneration += 1;
+        writeObject(tmp, this);
+        try {
+            if (!isJournaled) {
+                Files.deleteIfExists(logFile(f).toPath());
+            }
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(logFile(f).toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        isJournaled = true;
+        logRecords = 0;
+        logLength = 0;
+    }
+
+    /** Apply the whole records of the log F to this StagingArea, ignoring a torn last
+     *  record, unless the log is of another generation than this staging area. */
+    private void replayLog(File f) {
+        if (!f.exists()) {
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(f.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (bytes.length < LOG_HEADER_LENGTH || in.readLong() != logGeneration) {
+                return;
+            }
+            logLength = LOG_HEADER_LENGTH;
+            while (in.available() > 0) {
+                int op = in.readUnsignedByte();
+                String path = op == CLEAR ? null : in.readUTF();
+                switch (op) {
+                    case ADD -> addStage.put(path, ObjectId.read(in));
+                    case UNADD -> addStage.remove(path);
+                    case REMOVE -> removeStage.add(path);
+                    case UNREMOVE -> removeStage.remove(path);
+                    case CLEAR -> {
+                        addStage.clear();
+                        removeStage.clear();
+                    }
+                    case INDEX -> index().put(path, IndexEntry.read(in));
+                    case FORGET -> index().remove(path);
+                    default -> {
+                        return;
+                    }
+                }
+                logRecords += 1;
+                logLength = bytes.length - in.available();
+            }
+        } catch (EOFException excp) {
+            return;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 }
@@ -0,0 +1,224 @@
+package src;
+
+import java.io.File;
+import java.util.*;
+
+/** The file sections of the status command, computed from one snapshot.
+ *
+ * The head manifest, the staging area and a listing of the working directory are
+ * each read once, as sorted sequences of paths, and walked side by side in a single
+ * merge join: every path comes up once, with what each of the three says about it,
+ * and falls into the sections it belongs to. Working files are only hashed if they
+ * are tracked or staged, and only read if their stat data changed since they were
+ * last hashed; they are compared once the join is done, in one batch scanned on
+ * several threads (see StagingArea.hashWorkingFiles). status thus takes time
+ * linear in the number of files and reads a constant number of objects, whatever
+ * the number of files.
+ *
+ * A path is listed under
+ *    Staged Files      if it is staged for addition
+ *    Removed Files     if it is staged for removal
+ *    Modifications Not Staged For Commit
+ *                      as "(deleted)" if it is staged for addition, or tracked and
+ *                      not staged for removal, and missing from the working
+ *                      directory; as "(modified)" if it is there with other
+ *                      content than the staged version, or than the tracked version
+ *                      if it is not staged at all
+ *    Untracked Files   if it is in the working directory and neither staged for
+ *                      addition nor tracked
+ * each section in path order.
+ *
+ *  @author KAUNG SI THU
+ */
+class Status {
+
+    /** A sorted sequence of paths, with a value for each, walked in step with the
+     *  others by the merge join. */
+    private static final class Cursor<V> {
+        private final Iterator<Map.Entry<String, V>> entries;
+        private Map.Entry<String, V> current;
+
+        Cursor(Iterator<Map.Entry<String, V>> entries) {
+            this.entries = entries;
+            advance();
+        }
+
+        /** Return the cursor of the sorted PATHS, each with the value TRUE. */
+        static Cursor<Boolean> of(Collection<String> paths) {
+            Iterator<String> iterator = paths.iterator();
+            return new Cursor<>(new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Map.Entry<String, Boolean> next() {
+                    return Map.entry(iterator.next(), Boolean.TRUE);
+                }
+            });
+        }
+
+        /** Return the current path, null once every path is walked. */
+        String path() {
+            return current == null ? null : current.getKey();
+        }
+
+        /** Return the value of PATH and move past it if it is the current path,
+         *  and return null otherwise. */
+        V take(String path) {
+            if (current == null || !current.getKey().equals(path)) {
+                return null;
+            }
+            V value = current.getValue();
+            advance();
+            return value;
+        }
+
+        private void advance() {
+            current = entries.hasNext() ? entries.next() : null;
+        }
+    }
+
+
+
+    /* Instance Variables */
+    /** The sections, each in path order. */
+    private final List<String> staged = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+    private final List<String> modifications = new ArrayList<>();
+    private final List<String> untracked = new ArrayList<>();
+
+    /** The paths of the working files to compare with a version, in path order, and
+     *  the version of each, null for the missing files. */
+    private final List<String> compared = new ArrayList<>();
+    private final List<ObjectId> expectedVersions = new ArrayList<>();
+
+    private Status() {
+    }
+
+    /**
+     * Return the status of the working directory WORKINGDIR against the commit HEAD
+     * and the staging area STAGE. The hashes of the working files read on the way
+     * are recorded in the index of STAGE.
+     * @param head the head commit
+     * @param stage the staging area
+     * @param workingDir the working directory
+     * @return the file sections of the status
+     */
+    static Status compute(Commit head, StagingArea stage, File workingDir) {
+        Status status = new Status();
+        Cursor<ObjectId> tracked = new Cursor<>(head.getFileBlobs().entrySet().iterator());
+        Cursor<ObjectId> added = new Cursor<>(stage.getAddStage().entrySet().iterator());
+        Cursor<Boolean> removed = Cursor.of(new TreeSet<>(stage.getRemoveStageFiles()));
+        Cursor<Boolean> present = Cursor.of(Repository.workingFiles(workingDir));
+
+        String path;
+        while ((path = first(tracked.path(), added.path(), removed.path(),
+                             present.path())) != null) {
+            status.classify(path, tracked.take(path), added.take(path),
+                            removed.take(path) != null, present.take(path) != null);
+        }
+        status.compare(stage, workingDir);
+        return status;
+    }
+
+    /**
+     * Return the paths staged for addition.
+     * @return the staged paths, in path order
+     */
+    List<String> getStagedFiles() {
+        return staged;
+    }
+
+    /**
+     * Return the paths staged for removal.
+     * @return the removed paths, in path order
+     */
+    List<String> getRemovedFiles() {
+        return removed;
+    }
+
+    /**
+     * Return the modifications not staged for commit, each as the path followed by
+     * " (modified)" or " (deleted)".
+     * @return the modifications, in path order
+     */
+    List<String> getModifications() {
+        return modifications;
+    }
+
+    /**
+     * Return the paths of the untracked working files.
+     * @return the untracked paths, in path order
+     */
+    List<String> getUntrackedFiles() {
+        return untracked;
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /** Put PATH in its sections, given its tracked and staged versions (each null if
+     *  there is none), whether it is staged for removal and whether it is a working
+     *  file. A path with a version to compare with is left to compare. */
+    private void classify(String path, ObjectId trackedVersion, ObjectId stagedVersion,
+                          boolean isRemoved, boolean isPresent) {
+        if (stagedVersion != null) {
+            staged.add(path);
+        }
+        if (isRemoved) {
+            removed.add(path);
+        }
+
+        ObjectId expected = stagedVersion != null ? stagedVersion
+                          : isRemoved ? null : trackedVersion;
+        if (expected != null) {
+            compared.add(path);
+            expectedVersions.add(isPresent ? expected : null);
+        }
+
+        if (isPresent && stagedVersion == null && trackedVersion == null) {
+            untracked.add(path);
+        }
+    }
+
+    /** Hash the working files left to compare in WORKINGDIR, recording their hashes
+     *  in the index of STAGE, and list those missing or changed as modifications. */
+    private void compare(StagingArea stage, File workingDir) {
+        List<String> present = new ArrayList<>();
+        for (int i = 0; i < compared.size(); i += 1) {
+            if (expectedVersions.get(i) != null) {
+                present.add(compared.get(i));
+            }
+        }
+        Map<String, String> hashes = stage.hashWorkingFiles(workingDir, present, false);
+
+        for (int i = 0; i < compared.size(); i += 1) {
+            String path = compared.get(i);
+            ObjectId expected = expectedVersions.get(i);
+            if (expected == null) {
+                modifications.add(path + " (deleted)");
+            } else if (!expected.toString().equals(hashes.get(path))) {
+                modifications.add(path + " (modified)");
+            }
+        }
+    }
+
+    /** Return the least of PATHS that is not null, null if they all are. */
+    private static String first(String... paths) {
+        String result = null;
+        for (String path : paths) {
+            if (path != null && (result == null || path.compareTo(result) < 0)) {
+                result = path;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,184 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static src.Utils.*;
+
+/** A benchmark of the object stores, whose main program may be invoked as
+ *      java src.StoreBench [ROUNDS]
+ *  It runs the same repository workload on FileObjectStores in a temporary folder
+ *  and on MemoryObjectStores (see Repository.useStores): a history of COUNT
+ *  commits, each adding a new 1 KiB file to the files of its parent, then a walk of
+ *  the history from the last commit to the first, decoding every commit and looking
+ *  up the file it added. The commit cache is cleared before each walk, so every
+ *  commit is read from its store. Each side is run ROUNDS times (5 by default)
+ *  after a warm-up round, on new stores every time, and the best round of each is
+ *  reported in commits per second.
+ *
+ *  The memory stores show what the rest of the code costs without the file
+ *  system, and are what tests of the object model can run on.
+ *
+ *  @author KAUNG SI THU
+ */
+public class StoreBench {
+
+    /** The number of commits in the history of a round. */
+    private static final int COUNT = 2_000;
+
+    /** The size of the file each commit adds, in bytes. */
+    private static final int FILE_SIZE = 1024;
+
+    /** The checksums of the runs, kept so that no walk is optimized away. */
+    private static volatile int checksum;
+
+    /** Run the benchmark, printing a line per case. */
+    public static void main(String... args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        byte[][] contents = new byte[COUNT][FILE_SIZE];
+        Random random = new Random(61);
+        for (byte[] content : contents) {
+            random.nextBytes(content);
+        }
+
+        File folder = Files.createTempDirectory("storebench").toFile();
+        try {
+            Supplier<Stores> fileStores = () -> fileStores(folder);
+            Supplier<Stores> memoryStores = () -> new Stores(new MemoryObjectStore(),
+                                                             new MemoryObjectStore());
+            run("commit", rounds, fileStores, memoryStores,
+                () -> commitHistory(contents).elapsed);
+            run("walk history", rounds, fileStores, memoryStores,
+                () -> walkHistory(commitHistory(contents).last));
+        } finally {
+            delete(folder.toPath());
+        }
+    }
+
+    /** The commit and blob stores of a round. */
+    private static final class Stores {
+        private final ObjectStore commits;
+        private final ObjectStore blobs;
+
+        Stores(ObjectStore commits, ObjectStore blobs) {
+            this.commits = commits;
+            this.blobs = blobs;
+        }
+    }
+
+    /** A workload run on the stores of a round, returning the nanoseconds the timed
+     *  part of it took. */
+    private interface Workload {
+        long run();
+    }
+
+    /** The time a history took to save, in nanoseconds, and its last commit. */
+    private static final class History {
+        private final long elapsed;
+        private final String last;
+
+        History(long elapsed, String last) {
+            this.elapsed = elapsed;
+            this.last = last;
+        }
+    }
+
+    /** Time WORKLOAD on the file and the memory stores, and print their best rates
+     *  in commits per second and the speed-up. */
+    private static void run(String name, int rounds, Supplier<Stores> fileStores,
+                            Supplier<Stores> memoryStores, Workload workload) {
+        double onFiles = best(rounds, fileStores, workload);
+        double inMemory = best(rounds, memoryStores, workload);
+        System.out.printf("%-22s %14.0f -> %14.0f %-9s (x%.2f)%n",
+                          name, onFiles, inMemory, "commits/s", inMemory / onFiles);
+    }
+
+    /** Return the best rate of ROUNDS timed runs of WORKLOAD, each on new STORES,
+     *  after a warm-up run. */
+    private static double best(int rounds, Supplier<Stores> stores, Workload workload) {
+        double best = 0;
+        for (int round = 0; round <= rounds; round += 1) {
+            Stores current = stores.get();
+            Repository.useStores(current.commits, current.blobs);
+            CommitCache.clear();
+            long elapsed = workload.run();
+            if (round > 0) {
+                best = Math.max(best, COUNT * 1e9 / elapsed);
+            }
+        }
+        return best;
+    }
+
+    /** Save a history of COUNT commits, the I-th adding CONTENTS[I], and return the
+     *  time it took and its last commit. */
+    private static History commitHistory(byte[][] contents) {
+        long start = System.nanoTime();
+        Commit parent = null;
+        String parentId = null;
+        for (int i = 0; i < COUNT; i += 1) {
+            Commit commit = parentId == null ? new Commit("initial commit")
+                                             : new Commit("commit " + i, parentId);
+            if (parent != null) {
+                commit.inheritFiles(parent);
+            }
+            String blob = Blob.saveContents(contents[i], false).getHashCode();
+            commit.addToFileBlob(path(i), blob);
+            commit.saveManifest(false);
+            byte[] encodedCommit = CommitCodec.encode(commit);
+            parentId = sha1(encodedCommit);
+            Commit.saveCommit(parentId, encodedCommit, false);
+            parent = commit;
+        }
+        return new History(System.nanoTime() - start, parentId);
+    }
+
+    /** Walk the history saved by commitHistory from its last commit LAST to its
+     *  first, and return the time the walk took. */
+    private static long walkHistory(String last) {
+        CommitCache.clear();
+        long start = System.nanoTime();
+        int sum = 0;
+        ObjectId id = ObjectId.fromHex(last);
+        for (int i = COUNT - 1; i >= 0; i -= 1) {
+            Commit commit = Commit.readCommit(id, false);
+            sum += commit.getFromFileBlob(path(i)).charAt(0);
+            ObjectId[] parents = commit.getParentIds();
+            id = parents.length > 0 ? parents[0] : null;
+        }
+        long elapsed = System.nanoTime() - start;
+        checksum += sum;
+        return elapsed;
+    }
+
+    /** Return the path of the file added by the I-th commit. */
+    private static String path(int i) {
+        return "src/module" + (i % 50) + "/File" + i + ".java";
+    }
+
+    /** Return new FileObjectStores in new object folders under FOLDER. */
+    private static Stores fileStores(File folder) {
+        try {
+            File gitletDir = Files.createTempDirectory(folder.toPath(), "round").toFile();
+            File commits = join(gitletDir, Repository.COMMITS_FOLDER_NAME);
+            File blobs = join(gitletDir, Repository.BLOBS_FOLDER_NAME);
+            commits.mkdir();
+            blobs.mkdir();
+            return new Stores(new FileObjectStore(commits), new FileObjectStore(blobs));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Delete the folder at PATH and everything in it. */
+    private static void delete(Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -2,20 +2,26 @@ package src;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -31,38 +37,203 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** The length of a complete SHA-1 UID in raw bytes. */
+    static final int UID_RAW_LENGTH = 20;
+
     /* SHA-1 HASH VALUES. */
 
-    /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
-    static String sha1(Object... vals) {
+    /** The size of the buffer files are hashed through by sha1File. */
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    /** The longest String that sha1 hashes without encoding it into a new
+     *  array, if it is ASCII. */
+    private static final int HASH_SCRATCH_SIZE = 256;
+
+    /** The hexadecimal digits, by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The value of each ASCII hexadecimal digit, -1 for other characters. */
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 16; i += 1) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
+    /** The SHA-1 digest of each thread, with room for a raw hash, the ASCII
+     *  bytes of a short String and a direct buffer for file reads, so that
+     *  hashing allocates nothing but the resulting hexadecimal String. */
+    private static final class Hasher {
+        private final MessageDigest md = newSha1Digest();
+        private final byte[] raw = new byte[UID_RAW_LENGTH];
+        private final byte[] scratch = new byte[HASH_SCRATCH_SIZE];
+        private ByteBuffer buffer;
+    }
+
+    /** The Hasher of each thread. */
+    private static final ThreadLocal<Hasher> HASHER =
+        ThreadLocal.withInitial(Hasher::new);
+
+    /** Returns a new SHA-1 MessageDigest, for the callers that stream content
+     *  through a digest of their own while sha1 may be used meanwhile. */
+    static MessageDigest newSha1Digest() {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Returns the SHA-1 hash of the concatenation of VALS, which may
+     *  be any mixture of byte arrays, Strings and ByteBuffers (whose
+     *  remaining bytes are hashed, leaving their position as it was). */
+    static String sha1(Object... vals) {
+        Hasher hasher = HASHER.get();
+        MessageDigest md = hasher.md;
+        md.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                update(hasher, (String) val);
+            } else if (val instanceof ByteBuffer) {
+                md.update(((ByteBuffer) val).duplicate());
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
+            }
+        }
+        return hexDigest(hasher);
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, read through a
+     *  FileChannel into a reused direct buffer.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String sha1File(File file) {
+        Hasher hasher = HASHER.get();
+        MessageDigest md = hasher.md;
+        md.reset();
+        if (hasher.buffer == null) {
+            hasher.buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        }
+        ByteBuffer buffer = hasher.buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            md.reset();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return hexDigest(hasher);
+    }
+
+    /** Returns the 20 raw bytes of the 40-digit hexadecimal SHA-1 UID HASH. */
+    static byte[] rawHash(String hash) {
+        if (hash.length() != UID_LENGTH) {
+            throw new IllegalArgumentException("not a SHA-1 UID: " + hash);
+        }
+        byte[] result = new byte[UID_RAW_LENGTH];
+        for (int i = 0; i < UID_RAW_LENGTH; i += 1) {
+            result[i] = (byte) (hexValue(hash, 2 * i) << 4 | hexValue(hash, 2 * i + 1));
+        }
+        return result;
+    }
+
+    /** Returns the 40-digit hexadecimal form of the 20 raw bytes of RAWHASH. */
+    static String hexHash(byte[] rawHash) {
+        char[] result = new char[2 * rawHash.length];
+        for (int i = 0; i < rawHash.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(rawHash[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[rawHash[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Updates the digest of HASHER with the UTF-8 bytes of VALUE, copying
+     *  the chars of a short ASCII String into its scratch array. */
+    private static void update(Hasher hasher, String value) {
+        int length = value.length();
+        if (length <= HASH_SCRATCH_SIZE) {
+            byte[] scratch = hasher.scratch;
+            int i;
+            for (i = 0; i < length; i += 1) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                scratch[i] = (byte) c;
+            }
+            if (i == length) {
+                hasher.md.update(scratch, 0, length);
+                return;
+            }
+        }
+        hasher.md.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Finishes the digest of HASHER into its raw array and returns it in
+     *  hexadecimal. */
+    private static String hexDigest(Hasher hasher) {
+        try {
+            hasher.md.digest(hasher.raw, 0, UID_RAW_LENGTH);
+        } catch (DigestException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return hexHash(hasher.raw);
+    }
+
+    /** Returns the value of the hexadecimal digit at INDEX of HASH. */
+    private static int hexValue(String hash, int index) {
+        char c = hash.charAt(index);
+        int value = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("not a SHA-1 UID: " + hash);
+        }
+        return value;
+    }
+
+    /* VARIABLE-LENGTH INTEGERS */
+
+    /** Write the non-negative VALUE to OUT as an unsigned LEB128 varint: 7 bits
+     *  per byte, low bits first, high bit set on every byte but the last. */
+    static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Read an unsigned LEB128 varint written by writeVarint from IN.  Throws
+     *  EOFException if IN ends before the varint does. */
+    static long readVarint(InputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated varint.");
+            }
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw error("Malformed varint.");
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -220,6 +391,62 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from the serialized bytes remaining in
+     *  BUFFER, casting it to EXPECTEDCLASS.  The bytes are read straight out of
+     *  BUFFER, which may be a mapped file, without copying them first.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(ByteBuffer buffer,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteBufferInputStream(buffer));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** An InputStream over the remaining bytes of a ByteBuffer. */
+    static class ByteBufferInputStream extends InputStream {
+
+        /** The buffer being read. */
+        private final ByteBuffer buffer;
+
+        /** A stream reading the remaining bytes of BUFFER. */
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -0,0 +1,158 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/** Scans the files of a working directory on several threads.
+ *
+ * Reading the stat data of a file and hashing its content only read from the file
+ * system, and Utils.sha1File keeps a digest and a buffer per thread, so the files
+ * of a scan are spread over a ForkJoinPool of as many threads as configured
+ * (core.hashThreads, see Config), by default one per processor. A scan of a few
+ * files runs on the calling thread, as starting the pool would take longer. The
+ * pool is started by the first scan that needs it and kept for the scans after it,
+ * such as the status and the checkout checks of one command; its threads are
+ * daemons, so it never keeps the process alive.
+ *
+ * The tasks given to map must not change anything shared: every command reads and
+ * records the results on the calling thread once the scan is done (see
+ * StagingArea.hashWorkingFiles). Saving objects is not done here.
+ *
+ *  @author KAUNG SI THU
+ */
+class WorkingTree {
+
+    /** The fewest paths a scan spreads over the pool, and the fewest a thread is
+     *  given at once. */
+    static final int PARALLEL_THRESHOLD = 32;
+
+    /** The pool of the scans, null until a scan needs it. */
+    private static ForkJoinPool pool;
+
+
+
+    /********************************************************************************
+     *                          Methods to Scan Working Files                       *
+     ********************************************************************************/
+
+    /**
+     * Return the result of TASK for each of PATHS, in the order of PATHS, running
+     * the tasks on as many threads as configured for the local or the remote
+     * repository.
+     * @param paths the paths to scan
+     * @param task the scan of a path, which must be safe to run on several threads
+     * @return the results, one per path
+     */
+    static <T> List<T> map(List<String> paths, Function<String, T> task, boolean isRemote) {
+        Object[] results = new Object[paths.size()];
+        int threads = Config.hashThreads(isRemote);
+        if (threads <= 1 || paths.size() < PARALLEL_THRESHOLD) {
+            new Scan<>(paths, task, results, 0, paths.size()).compute();
+        } else {
+            pool(threads).invoke(new Scan<>(paths, task, results, 0, paths.size()));
+        }
+
+        List<T> result = new ArrayList<>(results.length);
+        for (Object value : results) {
+            @SuppressWarnings("unchecked")
+            T typed = (T) value;
+            result.add(typed);
+        }
+        return result;
+    }
+
+    /**
+     * Return the paths among PATHS that are plain files of the working directory
+     * WORKINGDIR, e.g. the untracked files in the way of a checkout.
+     * @param workingDir the working directory of the local or a remote repository
+     * @param paths the tracked paths to look for
+     * @return the paths that are plain files, in the order of PATHS
+     */
+    static List<String> plainFiles(File workingDir, Collection<String> paths,
+                                   boolean isRemote) {
+        List<String> candidates = new ArrayList<>(paths);
+        List<BasicFileAttributes> stats = map(candidates,
+            path -> stat(Utils.join(workingDir, path)), isRemote);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i += 1) {
+            if (stats.get(i) != null && stats.get(i).isRegularFile()) {
+                result.add(candidates.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the stat data of FILE, following symbolic links.
+     * @param file the file in question
+     * @return the stat data of the file, null if it does not exist
+     */
+    static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+
+
+
+
+
+    /********************************************************************************
+     *                            Private Helper Methods                            *
+     ********************************************************************************/
+
+    /** Return the pool of THREADS threads, started on first use, or again if the
+     *  number of threads asked for changed. */
+    private static synchronized ForkJoinPool pool(int threads) {
+        if (pool == null || pool.getParallelism() != threads) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+
+    /** The scan of the paths from START to END, split in halves down to
+     *  PARALLEL_THRESHOLD paths. */
+    private static final class Scan<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> paths;
+        private final Function<String, T> task;
+        private final Object[] results;
+        private final int start;
+        private final int end;
+
+        Scan(List<String> paths, Function<String, T> task, Object[] results,
+             int start, int end) {
+            this.paths = paths;
+            this.task = task;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= PARALLEL_THRESHOLD || getPool() == null) {
+                for (int i = start; i < end; i += 1) {
+                    results[i] = task.apply(paths.get(i));
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new Scan<>(paths, task, results, start, middle),
+                      new Scan<>(paths, task, results, middle, end));
+        }
+    }
+}